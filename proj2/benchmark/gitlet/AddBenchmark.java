@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compares adding files one at a time, which writes the index once per file, with
+ * adding them all at once, which hashes them in parallel and writes the index once.
+ * Must be run in an empty directory, where it creates a repository.
+ * <pre>
+ * java gitlet.AddBenchmark [files] [size]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class AddBenchmark {
+
+    public static void main(String[] args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int size = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        String[] entries = Repository.CWD.list();
+        if (entries == null || entries.length > 0) {
+            System.out.println("Run in an empty directory.");
+            return;
+        }
+        Repository.init();
+        Random random = new Random(42);
+        List<String> loopFiles = createFiles("loop", files, size, random);
+        List<String> batchFiles = createFiles("batch", files, size, random);
+        System.out.printf("%d files of %d bytes per run%n", files, size);
+
+        long startTime = System.nanoTime();
+        for (String fileName : loopFiles) {
+            new Repository().add(Collections.singletonList(fileName));
+        }
+        report("per file", System.nanoTime() - startTime, files);
+
+        startTime = System.nanoTime();
+        new Repository().add(batchFiles);
+        report("batch", System.nanoTime() - startTime, files);
+    }
+
+    /**
+     * Create files with random content.
+     *
+     * @return Names of the files
+     */
+    private static List<String> createFiles(String prefix, int files, int size, Random random) {
+        List<String> fileNames = new ArrayList<>(files);
+        byte[] content = new byte[size];
+        for (int i = 0; i < files; i++) {
+            random.nextBytes(content);
+            String fileName = String.format("%s-%05d.bin", prefix, i);
+            writeContents(new File(Repository.CWD, fileName), (Object) content);
+            fileNames.add(fileName);
+        }
+        return fileNames;
+    }
+
+    private static void report(String mode, long nanos, int files) {
+        System.out.printf("  %-8s %9.3f s %10.1f us/file%n", mode, nanos / 1e9, nanos / 1e3 / files);
+    }
+}
@@ -0,0 +1,96 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Saves successive versions of a large binary file, each with a few bytes inserted,
+ * overwritten or deleted at random places, and reports how much the object store
+ * grows for each version, which would be the whole compressed file without chunking.
+ * Every version is read back and compared. Must be run in an empty directory, where
+ * it creates a repository.
+ * <pre>
+ * java gitlet.ChunkBenchmark [size in MiB] [versions]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class ChunkBenchmark {
+
+    public static void main(String[] args) {
+        int size = (args.length > 0 ? Integer.parseInt(args[0]) : 64) * 1024 * 1024;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        String[] entries = Repository.CWD.list();
+        if (entries == null || entries.length > 0) {
+            System.out.println("Run in an empty directory.");
+            return;
+        }
+        Repository.init();
+        Random random = new Random(42);
+        byte[] content = new byte[size];
+        random.nextBytes(content);
+        File file = join(Repository.CWD, "data.bin");
+        System.out.printf("%d MiB file, %d versions%n", size >> 20, versions);
+
+        for (int version = 0; version < versions; version++) {
+            if (version > 0) {
+                content = edit(content, random);
+            }
+            writeContents(file, (Object) content);
+            long sizeBefore = ObjectStore.size();
+            long startTime = System.nanoTime();
+            String id = Blob.save(file);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            long growth = ObjectStore.size() - sizeBefore;
+            byte[] restored = readBlob(id);
+            System.out.printf("  version %d  %10d bytes stored  %7.3f s save  %s%n",
+                    version, growth, seconds, Arrays.equals(restored, content) ? "ok" : "WRONG");
+        }
+        System.out.printf("  total      %10d bytes stored for %d bytes of versions%n",
+                ObjectStore.size(), (long) size * versions);
+    }
+
+    /**
+     * Insert, overwrite or delete a few bytes at 3 random places.
+     */
+    private static byte[] edit(byte[] content, Random random) {
+        for (int i = 0; i < 3; i++) {
+            int offset = random.nextInt(content.length);
+            byte[] bytes = new byte[1 + random.nextInt(100)];
+            random.nextBytes(bytes);
+            byte[] edited;
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited = new byte[content.length + bytes.length];
+                    System.arraycopy(content, 0, edited, 0, offset);
+                    System.arraycopy(bytes, 0, edited, offset, bytes.length);
+                    System.arraycopy(content, offset, edited, offset + bytes.length, content.length - offset);
+                    break;
+                case 1:
+                    edited = content.clone();
+                    System.arraycopy(bytes, 0, edited, offset, Math.min(bytes.length, content.length - offset));
+                    break;
+                default:
+                    int length = Math.min(bytes.length, content.length - offset);
+                    edited = new byte[content.length - length];
+                    System.arraycopy(content, 0, edited, 0, offset);
+                    System.arraycopy(content, offset + length, edited, offset, content.length - offset - length);
+                    break;
+            }
+            content = edited;
+        }
+        return content;
+    }
+
+    private static byte[] readBlob(String id) {
+        try (InputStream in = Blob.fromFile(id).openContent()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * Compares the binary format of commits and the index with Java serialization,
+ * on synthetic data. Does not need a repository.
+ * <pre>
+ * java gitlet.CodecBenchmark [files] [rounds]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class CodecBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        Map<String, String> tracked = new TreeMap<>();
+        for (int i = 0; i < files; i++) {
+            tracked.put(String.format("/home/user/project/file-%05d.txt", i), sha1("blob", Integer.toString(i)));
+        }
+        String commitId = sha1("commit");
+        Commit commit = new Commit(commitId, new Date(), "Benchmark commit",
+                Collections.singletonList(sha1("parent")), null, tracked);
+        System.out.printf("commit with %d tracked files, %d rounds%n", files, rounds);
+        report("java", serialize(commit), rounds, bytes -> deserialize(bytes, Commit.class));
+        report("binary", commit.encode(), rounds, bytes -> Commit.decode(commitId, bytes));
+
+        File dir = Files.createTempDirectory("gitlet-bench").toFile();
+        try {
+            List<File> worktree = new ArrayList<>();
+            for (int i = 0; i < files; i++) {
+                File file = join(dir, String.format("file-%05d.txt", i));
+                writeContents(file, "content " + i + "\n");
+                worktree.add(file);
+            }
+            StagingArea stagingArea = new StagingArea();
+            stagingArea.getBlobIds(worktree);
+            for (File file : worktree.subList(0, files / 10)) {
+                stagingArea.getAdded().put(file.getPath(), sha1(file.getName()));
+            }
+            System.out.printf("index with %d stat entries and %d added files%n", files, files / 10);
+            report("java", serialize(stagingArea), rounds, bytes -> deserialize(bytes, StagingArea.class));
+            report("binary", stagingArea.encode(), rounds, StagingArea::decode);
+        } finally {
+            File[] children = dir.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    rm(child);
+                }
+            }
+            rm(dir);
+        }
+    }
+
+    /**
+     * Print the size and the mean decode time of the encoded bytes.
+     */
+    private static void report(String format, byte[] bytes, int rounds, Consumer<byte[]> decoder) {
+        // Warm up the JIT before timing.
+        for (int i = 0; i < rounds; i++) {
+            decoder.accept(bytes);
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            decoder.accept(bytes);
+        }
+        double micros = (System.nanoTime() - startTime) / 1e3 / rounds;
+        System.out.printf("  %-7s %9d bytes %12.1f us/decode%n", format, bytes.length, micros);
+    }
+
+    private static <T extends Serializable> T deserialize(byte[] bytes, Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Times {@link LineDiff} on synthetic texts of many lines, where a share of the lines
+ * is changed, inserted or deleted, from a few edits to a rewrite of most lines.
+ * Lines are unique unless a number of distinct lines is given, in which case the
+ * lines, changed or not, are picked among these, so that few lines can be set aside
+ * before the search. Every edit script is checked by applying it to the old text.
+ * Does not need a repository.
+ * <pre>
+ * java gitlet.DiffBenchmark [lines] [rounds] [distinct]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class DiffBenchmark {
+
+    private static final double[] EDIT_RATES = {0.0001, 0.001, 0.01, 0.1, 0.5};
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int distinct = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+        Random random = new Random(42);
+        List<String> oldLines = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            oldLines.add(newLine(random, distinct));
+        }
+        LineDiff.Text a = toText(oldLines);
+        System.out.printf("%d lines, %s, %d rounds%n", lines,
+                distinct > 0 ? distinct + " distinct lines" : "unique lines", rounds);
+
+        for (double rate : EDIT_RATES) {
+            List<String> newLines = new ArrayList<>(lines);
+            for (String line : oldLines) {
+                if (random.nextDouble() >= rate) {
+                    newLines.add(line);
+                    continue;
+                }
+                switch (random.nextInt(3)) {
+                    case 0:
+                        newLines.add(newLine(random, distinct));
+                        break;
+                    case 1:
+                        newLines.add(line);
+                        newLines.add(newLine(random, distinct));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            LineDiff.Text b = toText(newLines);
+
+            List<LineDiff.Edit> edits = LineDiff.diff(a, b);
+            long startTime = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                edits = LineDiff.diff(a, b);
+            }
+            double millis = (System.nanoTime() - startTime) / 1e6 / rounds;
+            int d = 0;
+            for (LineDiff.Edit edit : edits) {
+                d += edit.endA - edit.beginA + edit.endB - edit.beginB;
+            }
+            boolean isCorrect = apply(oldLines, newLines, edits).equals(newLines);
+            System.out.printf("  %6.2f%% edited  D=%-8d %6d edits %10.1f ms  %s%n",
+                    rate * 100, d, edits.size(), millis, isCorrect ? "ok" : "WRONG");
+        }
+    }
+
+    private static String newLine(Random random, int distinct) {
+        if (distinct > 0) {
+            return String.format("line %d", random.nextInt(distinct));
+        }
+        return String.format("line %016x", random.nextLong());
+    }
+
+    private static LineDiff.Text toText(List<String> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String line : lines) {
+            bytes.writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return new LineDiff.Text(bytes.toByteArray());
+    }
+
+    /**
+     * Apply the edits to the old lines, taking the new lines from b.
+     */
+    private static List<String> apply(List<String> a, List<String> b, List<LineDiff.Edit> edits) {
+        List<String> result = new ArrayList<>(b.size());
+        int line = 0;
+        for (LineDiff.Edit edit : edits) {
+            result.addAll(a.subList(line, edit.beginA));
+            result.addAll(b.subList(edit.beginB, edit.endB));
+            line = edit.endA;
+        }
+        result.addAll(a.subList(line, a.size()));
+        return result;
+    }
+}
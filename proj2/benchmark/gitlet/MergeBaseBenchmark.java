@@ -0,0 +1,173 @@
+package gitlet;
+
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Compares the generation number merge-base with the former first-parent walk in
+ * date order, on a synthetic history held in memory. The history has several
+ * branches merged into each other, criss-cross merges, and clock skew. Every result
+ * is checked against the best common ancestors found by brute force.
+ * <pre>
+ * java gitlet.MergeBaseBenchmark [commits] [queries]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class MergeBaseBenchmark {
+
+    private static final int BRANCHES = 8;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        Random random = new Random(42);
+
+        List<Commit> commits = generateHistory(size, random);
+        CommitGraph commitGraph = CommitGraph.of(commits);
+        System.out.printf("%d commits, %d branches, %d queries%n", commitGraph.size(), BRANCHES, queries);
+
+        int[][] pairs = new int[queries][];
+        for (int i = 0; i < queries; i++) {
+            int from = size - size / 10;
+            pairs[i] = new int[]{from + random.nextInt(size - from), from + random.nextInt(size - from)};
+        }
+
+        long generationNanos = 0;
+        long dateOrderNanos = 0;
+        int generationCorrect = 0;
+        int dateOrderCorrect = 0;
+        int dateOrderFailed = 0;
+        for (int[] pair : pairs) {
+            Set<Integer> best = getBestCommonAncestors(commitGraph, pair[0], pair[1]);
+
+            long startTime = System.nanoTime();
+            int mergeBase = commitGraph.getMergeBase(pair[0], pair[1]);
+            generationNanos += System.nanoTime() - startTime;
+            if (best.contains(mergeBase)) {
+                generationCorrect++;
+            }
+
+            startTime = System.nanoTime();
+            try {
+                int dateOrderMergeBase = getDateOrderMergeBase(commitGraph, pair[0], pair[1]);
+                if (best.contains(dateOrderMergeBase)) {
+                    dateOrderCorrect++;
+                }
+            } catch (RuntimeException e) {
+                dateOrderFailed++;
+            }
+            dateOrderNanos += System.nanoTime() - startTime;
+        }
+        System.out.printf("  generation  %8.3f ms/query, %d/%d best%n",
+                generationNanos / 1e6 / queries, generationCorrect, queries);
+        System.out.printf("  date order  %8.3f ms/query, %d/%d best, %d failed%n",
+                dateOrderNanos / 1e6 / queries, dateOrderCorrect, queries, dateOrderFailed);
+    }
+
+    /**
+     * Generate a history where each commit extends a random branch, and one in ten
+     * merges another branch. One in twenty commits has its clock a day behind.
+     */
+    private static List<Commit> generateHistory(int size, Random random) {
+        List<Commit> commits = new ArrayList<>(size);
+        Commit root = new Commit(sha1("commit", "0"), new Date(0), "initial commit",
+                new ArrayList<>(), null, new TreeMap<>());
+        commits.add(root);
+        String[] tips = new String[BRANCHES];
+        Arrays.fill(tips, root.getId());
+        long time = 1_000_000_000_000L;
+        for (int i = 1; i < size; i++) {
+            time += 60_000;
+            int branch = random.nextInt(BRANCHES);
+            List<String> parents = new ArrayList<>();
+            parents.add(tips[branch]);
+            if (random.nextInt(10) == 0) {
+                int other = random.nextInt(BRANCHES);
+                if (!tips[other].equals(tips[branch])) {
+                    parents.add(tips[other]);
+                }
+            }
+            long timestamp = random.nextInt(20) == 0 ? time - 86_400_000L : time;
+            Commit commit = new Commit(sha1("commit", Integer.toString(i)), new Date(timestamp),
+                    "commit " + i, parents, null, new TreeMap<>());
+            commits.add(commit);
+            tips[branch] = commit.getId();
+        }
+        return commits;
+    }
+
+    /**
+     * The merge-base walk used before generation numbers: first parents only, latest first.
+     */
+    private static int getDateOrderMergeBase(CommitGraph commitGraph, int a, int b) {
+        Comparator<Integer> commitComparator = Comparator.<Integer>comparingLong(commitGraph::getTimestamp).reversed();
+        Queue<Integer> commitsQueue = new PriorityQueue<>(commitComparator);
+        commitsQueue.add(a);
+        commitsQueue.add(b);
+        boolean[] checked = new boolean[commitGraph.size()];
+        while (true) {
+            int latestCommit = commitsQueue.remove();
+            int firstParent = commitGraph.getFirstParent(latestCommit);
+            if (checked[firstParent]) {
+                return firstParent;
+            }
+            commitsQueue.add(firstParent);
+            checked[firstParent] = true;
+        }
+    }
+
+    /**
+     * Get the common ancestors of both commits that are not ancestors of another
+     * common ancestor, by marking every ancestor.
+     */
+    private static Set<Integer> getBestCommonAncestors(CommitGraph commitGraph, int a, int b) {
+        boolean[] ofA = getAncestors(commitGraph, Collections.singletonList(a));
+        boolean[] ofB = getAncestors(commitGraph, Collections.singletonList(b));
+        List<Integer> common = new ArrayList<>();
+        for (int i = 0; i < commitGraph.size(); i++) {
+            if (ofA[i] && ofB[i]) {
+                common.add(i);
+            }
+        }
+        List<Integer> parentsOfCommon = new ArrayList<>();
+        for (int position : common) {
+            parentsOfCommon.add(commitGraph.getFirstParent(position));
+            parentsOfCommon.add(commitGraph.getSecondParent(position));
+        }
+        boolean[] redundant = getAncestors(commitGraph, parentsOfCommon);
+        Set<Integer> best = new HashSet<>();
+        for (int position : common) {
+            if (!redundant[position]) {
+                best.add(position);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Mark the commits and all their ancestors.
+     */
+    private static boolean[] getAncestors(CommitGraph commitGraph, List<Integer> positions) {
+        boolean[] marked = new boolean[commitGraph.size()];
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int position : positions) {
+            if (position != CommitGraph.NONE && !marked[position]) {
+                marked[position] = true;
+                stack.push(position);
+            }
+        }
+        while (!stack.isEmpty()) {
+            int position = stack.pop();
+            int[] parents = {commitGraph.getFirstParent(position), commitGraph.getSecondParent(position)};
+            for (int parent : parents) {
+                if (parent != CommitGraph.NONE && !marked[parent]) {
+                    marked[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+        return marked;
+    }
+}
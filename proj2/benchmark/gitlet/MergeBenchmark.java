@@ -0,0 +1,76 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Times {@link LineMerge} on a synthetic text of many lines, where both sides
+ * change a share of the lines, the current side the even lines and the given side
+ * the odd ones, so that all changes merge, and then where a share of the changes
+ * of both sides hit the same lines. Does not need a repository.
+ * <pre>
+ * java gitlet.MergeBenchmark [lines] [rounds]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class MergeBenchmark {
+
+    private static final double[] EDIT_RATES = {0.001, 0.01, 0.1};
+
+    private static final double[] OVERLAP_RATES = {0, 0.1};
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Random random = new Random(42);
+        List<String> baseLines = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            baseLines.add(String.format("line %016x", random.nextLong()));
+        }
+        LineDiff.Text base = toText(baseLines);
+        PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+        System.out.printf("%d lines, %d rounds%n", lines, rounds);
+
+        for (double overlap : OVERLAP_RATES) {
+            for (double rate : EDIT_RATES) {
+                List<String> oursLines = new ArrayList<>(baseLines);
+                List<String> theirsLines = new ArrayList<>(baseLines);
+                for (int i = 0; i < lines; i++) {
+                    if (random.nextDouble() >= rate) {
+                        continue;
+                    }
+                    boolean isBoth = random.nextDouble() < overlap;
+                    if (isBoth || i % 2 == 0) {
+                        oursLines.set(i, baseLines.get(i) + " ours");
+                    }
+                    if (isBoth || i % 2 == 1) {
+                        theirsLines.set(i, baseLines.get(i) + " theirs");
+                    }
+                }
+                LineDiff.Text ours = toText(oursLines);
+                LineDiff.Text theirs = toText(theirsLines);
+
+                int conflicts = LineMerge.merge(out, base, ours, theirs);
+                long startTime = System.nanoTime();
+                for (int i = 0; i < rounds; i++) {
+                    conflicts = LineMerge.merge(out, base, ours, theirs);
+                }
+                double millis = (System.nanoTime() - startTime) / 1e6 / rounds;
+                System.out.printf("  %5.1f%% edited, %4.0f%% on the same lines  %7d conflicts %10.1f ms%n",
+                        rate * 100, overlap * 100, conflicts, millis);
+            }
+        }
+    }
+
+    private static LineDiff.Text toText(List<String> lines) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (String line : lines) {
+            bytes.writeBytes((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return new LineDiff.Text(bytes.toByteArray());
+    }
+}
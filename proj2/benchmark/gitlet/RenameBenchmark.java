@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Times {@link RenameDetector} on synthetic trees where every file is moved to a
+ * new path and some of its lines are changed, and counts the moves it finds. Does
+ * not need a repository.
+ * <pre>
+ * java gitlet.RenameBenchmark [lines] [changed lines in percent]
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class RenameBenchmark {
+
+    private static final int[] FILE_COUNTS = {100, 1000, 5000};
+
+    public static void main(String[] args) {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int changed = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Random random = new Random(42);
+        System.out.printf("files of %d lines, %d%% of the lines changed%n", lines, changed);
+
+        for (int files : FILE_COUNTS) {
+            Map<String, byte[]> contents = new HashMap<>();
+            Map<String, String> deleted = new HashMap<>();
+            Map<String, String> added = new HashMap<>();
+            for (int i = 0; i < files; i++) {
+                StringBuilder oldContent = new StringBuilder();
+                StringBuilder newContent = new StringBuilder();
+                for (int line = 0; line < lines; line++) {
+                    String text = String.format("%d %016x%n", line % 10, random.nextLong());
+                    oldContent.append(text);
+                    newContent.append(random.nextInt(100) < changed ? "changed " + random.nextInt() + "\n" : text);
+                }
+                String oldPath = String.format("old/%05d.txt", i);
+                String newPath = String.format("new/%05d.txt", i);
+                contents.put(oldPath, oldContent.toString().getBytes(StandardCharsets.UTF_8));
+                contents.put(newPath, newContent.toString().getBytes(StandardCharsets.UTF_8));
+                deleted.put(oldPath, Utils.sha1(oldPath));
+                added.put(newPath, Utils.sha1(newPath));
+            }
+
+            long startTime = System.nanoTime();
+            List<RenameDetector.Rename> renames = RenameDetector.detect(deleted, Collections.emptyMap(), added,
+                    contents::get, contents::get);
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+            int found = 0;
+            for (RenameDetector.Rename rename : renames) {
+                if (rename.source.substring(4).equals(rename.target.substring(4)) && !rename.isCopy) {
+                    found++;
+                }
+            }
+            System.out.printf("  %5d moved files  %5d found  %5d wrong  %8.3f s%n",
+                    files, found, renames.size() - found, seconds);
+        }
+    }
+}
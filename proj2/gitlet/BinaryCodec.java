@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * Primitives of the compact binary format of commits and the index: unsigned
+ * LEB128 varints, length-prefixed UTF-8 strings, raw 20-byte SHA1 ids and paths
+ * that share a prefix with the previous path written.
+ *
+ * @author Jeffrey
+ */
+public class BinaryCodec {
+
+    /**
+     * Tells if the bytes are a Java serialization stream, which is how commits
+     * and the index were stored before this format.
+     *
+     * @param bytes Stored bytes
+     * @return true if serialized
+     */
+    public static boolean isSerialized(byte[] bytes) {
+        return bytes.length >= 2 && (bytes[0] & 0xff) == 0xAC && (bytes[1] & 0xff) == 0xED;
+    }
+
+    /**
+     * Encodes values to bytes.
+     */
+    public static class Writer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        /**
+         * The last path written, which the next path is encoded against.
+         */
+        private String previousPath = "";
+
+        /**
+         * Write a single byte.
+         */
+        public void writeByte(int value) {
+            out.write(value);
+        }
+
+        /**
+         * Write an unsigned varint.
+         */
+        public void writeVarint(long value) {
+            Delta.writeVarint(out, value);
+        }
+
+        /**
+         * Write a string as its UTF-8 length followed by the bytes.
+         */
+        public void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        /**
+         * Write a SHA1 id as 20 raw bytes.
+         */
+        public void writeId(String id) {
+            out.write(toBytes(id), 0, UID_LENGTH / 2);
+        }
+
+        /**
+         * Write the path as the length of the prefix shared with the previous path
+         * followed by the rest, so sorted paths in one directory take a few bytes each.
+         */
+        public void writePath(String path) {
+            int shared = 0;
+            int max = Math.min(path.length(), previousPath.length());
+            while (shared < max && path.charAt(shared) == previousPath.charAt(shared)) {
+                shared++;
+            }
+            // Never split a surrogate pair, whose halves cannot be encoded alone.
+            if (shared > 0 && Character.isHighSurrogate(path.charAt(shared - 1))) {
+                shared--;
+            }
+            writeVarint(shared);
+            writeString(path.substring(shared));
+            previousPath = path;
+        }
+
+        /**
+         * Get the bytes written.
+         */
+        public byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes values from bytes written by {@link Writer}.
+     */
+    public static class Reader {
+
+        private final byte[] bytes;
+
+        private int pos;
+
+        /**
+         * The last path read, which the next path is decoded against.
+         */
+        private String previousPath = "";
+
+        public Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Read a single byte.
+         */
+        public int readByte() {
+            checkRemaining(1);
+            return bytes[pos++] & 0xff;
+        }
+
+        /**
+         * Read an unsigned varint.
+         */
+        public long readVarint() {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (shift > 63) {
+                    throw new IllegalArgumentException("codec: Bad varint");
+                }
+                b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        /**
+         * Read a varint used as a length or a count.
+         */
+        public int readLength() {
+            long value = readVarint();
+            // Every counted item takes at least one byte.
+            if (value < 0 || value > bytes.length - pos) {
+                throw new IllegalArgumentException(String.format("codec: %d: Bad length", value));
+            }
+            return (int) value;
+        }
+
+        /**
+         * Read a string.
+         */
+        public String readString() {
+            int length = readLength();
+            checkRemaining(length);
+            String value = new String(bytes, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        /**
+         * Read a SHA1 id.
+         */
+        public String readId() {
+            int length = UID_LENGTH / 2;
+            checkRemaining(length);
+            byte[] id = new byte[length];
+            System.arraycopy(bytes, pos, id, 0, length);
+            pos += length;
+            return toHex(id);
+        }
+
+        /**
+         * Read a path.
+         */
+        public String readPath() {
+            long shared = readVarint();
+            if (shared < 0 || shared > previousPath.length()) {
+                throw new IllegalArgumentException(String.format("codec: %d: Bad path prefix", shared));
+            }
+            previousPath = previousPath.substring(0, (int) shared) + readString();
+            return previousPath;
+        }
+
+        private void checkRemaining(int length) {
+            if (length > bytes.length - pos) {
+                throw new IllegalArgumentException("codec: Unexpected end of data");
+            }
+        }
+    }
+}
@@ -1,28 +1,48 @@
 package gitlet;
 
-import java.io.File;
-import java.io.Serializable;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
-import static gitlet.MyUtils.getObjectFile;
-import static gitlet.MyUtils.saveObjectFile;
+import static gitlet.MyUtils.*;
 import static gitlet.Utils.*;
 
 /**
  * Represent the file object.
+ * <p>
+ * A blob is stored as an object of type {@link ObjectStore#BLOB} whose payload is the
+ * file content. Files are hashed, stored and restored through a fixed-size buffer,
+ * so memory use does not depend on the file size. Blobs written before this format
+ * are serialized Blob instances holding the content, and are still readable.
+ * <p>
+ * Files of at least {@link Chunker#THRESHOLD} bytes are stored as an object of type
+ * {@link ObjectStore#CHUNKED} listing chunks that are shared with the other versions
+ * of the file and with other files, and are read back one chunk at a time.
+ * <p>
+ * The id of a blob is the SHA1 of its type and content, so identical files at
+ * different paths, and renamed files, are the same blob, stored whole or not. In repositories older
+ * than {@link Repository#CONTENT_ID_FORMAT_VERSION} the path of the file is hashed
+ * instead of the type, until they are migrated.
  *
  * @author Jeffrey
  */
-@SuppressWarnings("PrimitiveArrayArgumentToVarargsMethod")
 public class Blob implements Serializable {
 
+    private static final long serialVersionUID = 4042452199499036410L;
+
+    /**
+     * Size of the buffer used to stream file content.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
     /**
-     * The source file from constructor.
+     * The source file. Only set in the blobs written before the streamed format.
      */
     private final File source;
 
     /**
-     * The content of the source file.
+     * The content of the source file. Only set in the blobs written before the streamed format.
      */
     private final byte[] content;
 
@@ -36,12 +56,11 @@ public class Blob implements Serializable {
      */
     private final File file;
 
-    public Blob(File sourceFile) {
-        source = sourceFile;
-        String filePath = sourceFile.getPath();
-        content = readContents(sourceFile);
-        id = sha1(filePath, content);
-        file = getObjectFile(id);
+    private Blob(String id) {
+        this.source = null;
+        this.content = null;
+        this.id = id;
+        this.file = getObjectFile(id);
     }
 
     /**
@@ -51,25 +70,191 @@ public class Blob implements Serializable {
      * @return SHA1 id
      */
     public static String generatedId(File sourceFile) {
-        String filePath = sourceFile.getPath();
-        byte[] fileContent = readContents(sourceFile);
-        return sha1(filePath, fileContent);
+        MessageDigest digest = newDigest(getIdPrefix(sourceFile));
+        try (InputStream in = new FileInputStream(sourceFile)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash the file and save it to the objects folder, reading its content once.
+     * Nothing is written if the blob already exists.
+     *
+     * @param sourceFile File instance
+     * @return SHA1 id
+     */
+    public static String save(File sourceFile) {
+        try (InputStream in = new FileInputStream(sourceFile)) {
+            long length = sourceFile.length();
+            if (length >= Chunker.THRESHOLD
+                    && Repository.getFormatVersion() >= Repository.CONTENT_ID_FORMAT_VERSION) {
+                return Chunker.save(in, length, newDigest(getIdPrefix(sourceFile)), sourceFile.getPath());
+            }
+            return save(in, length, newDigest(getIdPrefix(sourceFile)), sourceFile.getPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
     }
 
     /**
-     * Get a Blob instance from the file with the SHA1 id.
+     * Save the content of this blob as a blob with the content id, as in repositories
+     * migrated to {@link Repository#CONTENT_ID_FORMAT_VERSION}, chunked if it is large
+     * enough, as {@link #save(File)} does. Nothing is written if that blob already exists.
+     *
+     * @return SHA1 id of the content
+     */
+    public String saveWithContentId() {
+        long length = getSize();
+        MessageDigest digest = newDigest(ObjectStore.BLOB.getBytes(StandardCharsets.UTF_8));
+        try (InputStream in = openContent()) {
+            if (length >= Chunker.THRESHOLD) {
+                return Chunker.save(in, length, digest, id);
+            }
+            return save(in, length, digest, id);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Hash the content and save it to the objects folder in a single pass.
+     *
+     * @param in     Content
+     * @param length Length of the content in bytes
+     * @param digest Digest already updated with the id prefix
+     * @param source Path or id of the content, for errors
+     * @return SHA1 id
+     */
+    private static String save(InputStream in, long length, MessageDigest digest, String source) {
+        File tempFile = ObjectStore.createTempFile();
+        try {
+            try (OutputStream out = ObjectStore.openForWrite(tempFile, ObjectStore.BLOB, length)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long total = 0;
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    digest.update(buffer, 0, n);
+                    out.write(buffer, 0, n);
+                    total += n;
+                }
+                if (total != length) {
+                    throw new IllegalArgumentException(String.format("blob: %s: Changed while reading", source));
+                }
+            }
+            String id = toHex(digest.digest());
+            ObjectStore.moveToStore(tempFile, id);
+            return id;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (tempFile.exists()) {
+                rm(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Get the bytes hashed before the content of the file: the type, or the path
+     * of the file in repositories not migrated to content ids.
+     */
+    private static byte[] getIdPrefix(File sourceFile) {
+        String prefix = Repository.getFormatVersion() < Repository.CONTENT_ID_FORMAT_VERSION
+                ? sourceFile.getPath() : ObjectStore.BLOB;
+        return prefix.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Create a SHA1 digest updated with the prefix of the blob id.
+     */
+    private static MessageDigest newDigest(byte[] idPrefix) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(idPrefix);
+            return digest;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /**
+     * Get a Blob instance from the file with the SHA1 id, through the object cache.
      * @param id SHA1 id
      * @return Blob instance
      */
     public static Blob fromFile(String id) {
-        return readObject(getObjectFile(id), Blob.class);
+        return ObjectCache.get(id, Blob.class, Blob::load,
+                blob -> 128 + (blob.content == null ? 0 : blob.content.length));
+    }
+
+    /**
+     * Read the blob header, or the whole serialized blob, from the object store.
+     */
+    private static Blob load(String id) {
+        try (InputStream in = ObjectStore.open(id)) {
+            ObjectStore.Header header = ObjectStore.readHeader(in);
+            if (header != null) {
+                if (!header.type.equals(ObjectStore.BLOB) && !header.type.equals(ObjectStore.CHUNKED)) {
+                    throw new IllegalArgumentException(String.format("blob: %s: Not a blob", id));
+                }
+                return new Blob(id);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return ObjectStore.readObject(id, Blob.class);
+    }
+
+    /**
+     * Open the content of this blob. The caller must close the stream.
+     *
+     * @return InputStream instance
+     */
+    public InputStream openContent() {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        InputStream in = ObjectStore.open(id);
+        try {
+            ObjectStore.Header header = ObjectStore.readHeader(in);
+            if (header != null && header.type.equals(ObjectStore.CHUNKED)) {
+                try (InputStream list = in) {
+                    return Chunker.open(list.readAllBytes());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return in;
     }
 
     /**
-     * Save this Blob instance to file in objects folder.
+     * Get the size of the content, which for a chunked blob is the sum of the sizes of its chunks.
+     *
+     * @return Size in bytes
      */
-    public void save() {
-        saveObjectFile(file, this);
+    public long getSize() {
+        if (content != null) {
+            return content.length;
+        }
+        ObjectStore.Header header = ObjectStore.getHeader(id);
+        return header.type.equals(ObjectStore.CHUNKED) ? Chunker.getSize(ObjectStore.readPayload(id)) : header.size;
+    }
+
+    /**
+     * Tells if this blob is stored as a serialized instance holding the content,
+     * as before the streamed format.
+     *
+     * @return true if serialized
+     */
+    public boolean isSerialized() {
+        return content != null;
     }
 
     /**
@@ -77,18 +262,38 @@ public class Blob implements Serializable {
      * @return Blob content
      */
     public String getContentAsString() {
-        return new String(content, StandardCharsets.UTF_8);
+        try (InputStream in = openContent()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
     }
 
     /**
-     * Write the file content back to the source file.
+     * Write the blob content to the file, creating or overwriting it, and creating its parent directories.
+     *
+     * @param target File instance
+     * @return Number of bytes written
      */
-    public void writeContentToSource() {
-        writeContents(source, content);
+    public long writeContentTo(File target) {
+        mkdirs(target.getParentFile());
+        try (InputStream in = openContent();
+             OutputStream out = new FileOutputStream(target)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long total = 0;
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+                total += n;
+            }
+            return total;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
     }
 
     /**
-     * Get the SHA1 id generated from the source file content
+     * Get the SHA1 id generated from the content
      * @return SHA1 id
      */
     public String getId() {
@@ -0,0 +1,301 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * A Bloom filter per commit of the {@link CommitGraph}, of the paths changed
+ * against its first parent, or of all its paths for a root commit. The
+ * directories holding a changed file count as changed as well. A path-limited
+ * walk skips the commits whose filter rejects the path without reading them.
+ * It covers the first {@link #size()} commits of the graph, commits appended
+ * after it was written must be read.
+ *
+ * <pre>
+ * commit-bloom
+ *   "GCBF" version:int count:int
+ *   end:int[count]     end offset of the filter of each commit in the data
+ *   data:byte*
+ * </pre>
+ *
+ * Paths are relative to the working directory, with '/' as separator. Each path
+ * sets {@link #HASHES} bits, derived from two murmur3 hashes of the path. A commit
+ * without changed paths has an empty filter, which rejects every path, and a
+ * commit with more than {@link #MAX_CHANGED_PATHS} has a single byte with all
+ * bits set, which rejects none.
+ *
+ * @author Jeffrey
+ */
+public class ChangedPathFilters {
+
+    /**
+     * The commit-bloom file.
+     */
+    public static final File FILE = join(Repository.GITLET_DIR, "commit-bloom");
+
+    private static final byte[] MAGIC = {'G', 'C', 'B', 'F'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Number of bits set per path.
+     */
+    private static final int HASHES = 7;
+
+    /**
+     * Size of the filter per path, for a false positive rate below 1%.
+     */
+    private static final int BITS_PER_PATH = 10;
+
+    /**
+     * Min size of a filter that is not empty. Smaller filters have too few distinct
+     * sets of bits, so that unrelated paths collide.
+     */
+    private static final int MIN_FILTER_BYTES = 8;
+
+    /**
+     * Max number of changed paths of a commit with a filter.
+     */
+    private static final int MAX_CHANGED_PATHS = 512;
+
+    private static final int SEED_1 = 0x293ae76f;
+    private static final int SEED_2 = 0x7e646e2c;
+
+    /**
+     * Memory mapped file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Number of commits.
+     */
+    private final int count;
+
+    private ChangedPathFilters(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("commit-bloom: %s: Bad file", FILE.getPath()));
+        }
+        this.count = buffer.getInt(8);
+    }
+
+    /**
+     * Load the filters from the file.
+     *
+     * @return ChangedPathFilters instance, or null if there is no file or if it is truncated
+     */
+    public static ChangedPathFilters load() {
+        if (!FILE.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (!isComplete(buffer)) {
+                debug("commit-bloom: %s: Truncated file, ignored", FILE.getPath());
+                return null;
+            }
+            return new ChangedPathFilters(buffer);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Tells if the file holds the end offsets of all its filters, and the data up to the last end.
+     */
+    private static boolean isComplete(MappedByteBuffer buffer) {
+        if (buffer.capacity() < HEADER_SIZE) {
+            return false;
+        }
+        int count = buffer.getInt(8);
+        if (count < 0 || buffer.capacity() < HEADER_SIZE + (long) count * 4) {
+            return false;
+        }
+        long dataSize = count == 0 ? 0 : buffer.getInt(HEADER_SIZE + (count - 1) * 4);
+        return dataSize >= 0 && buffer.capacity() >= HEADER_SIZE + (long) count * 4 + dataSize;
+    }
+
+    /**
+     * Write new filters covering all commits of the graph. The filters of the
+     * commits covered by the previous ones are copied, the others are computed
+     * by diffing the commits against their first parent.
+     *
+     * @param commitGraph CommitGraph instance
+     * @param previous    Previous filters of the same graph, or null
+     */
+    public static void write(CommitGraph commitGraph, ChangedPathFilters previous) {
+        int size = commitGraph.size();
+        int kept = previous == null ? 0 : Math.min(previous.count, size);
+        int[] ends = new int[size];
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int position = 0; position < kept; position++) {
+            data.writeBytes(previous.getFilter(position));
+            ends[position] = data.size();
+        }
+        for (int position = kept; position < size; position++) {
+            data.writeBytes(createFilter(getChangedPaths(commitGraph, position)));
+            ends[position] = data.size();
+        }
+        debug("commit-bloom: %d filters copied, %d computed", kept, size - kept);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + size * 4 + data.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int end : ends) {
+                out.writeInt(end);
+            }
+            data.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        // Replaced rather than overwritten, as the previous filters may be mapped from it.
+        writeContentsAtomically(FILE, bytes.toByteArray());
+    }
+
+    /**
+     * Delete the filters, for example because the graph was written again.
+     */
+    public static void delete() {
+        if (FILE.exists()) {
+            rm(FILE);
+        }
+    }
+
+    /**
+     * Get the paths changed by the commit against its first parent, and the directories holding them.
+     */
+    private static Set<String> getChangedPaths(CommitGraph commitGraph, int position) {
+        Commit commit = Commit.fromFile(commitGraph.getId(position));
+        int parent = commitGraph.getFirstParent(position);
+        Collection<String> filePaths = parent == CommitGraph.NONE
+                ? commit.getTracked().keySet()
+                : commit.diff(Commit.fromFile(commitGraph.getId(parent))).keySet();
+        Set<String> paths = new HashSet<>();
+        for (String filePath : filePaths) {
+            String path = Tree.getRelativePath(filePath);
+            while (paths.add(path) && path.lastIndexOf('/') > 0) {
+                path = path.substring(0, path.lastIndexOf('/'));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Create the filter of the paths.
+     */
+    private static byte[] createFilter(Set<String> paths) {
+        if (paths.size() > MAX_CHANGED_PATHS) {
+            return new byte[]{(byte) 0xff};
+        }
+        if (paths.isEmpty()) {
+            return new byte[0];
+        }
+        byte[] filter = new byte[Math.max(MIN_FILTER_BYTES, (paths.size() * BITS_PER_PATH + 7) / 8)];
+        for (String path : paths) {
+            for (int bit : getBits(path, filter.length * 8)) {
+                filter[bit >>> 3] |= (byte) (1 << (bit & 7));
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Get the number of commits covered.
+     *
+     * @return Number of commits
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Tells if the commit may have changed the path. False positives are possible,
+     * false negatives are not.
+     *
+     * @param position Position of the commit in the graph, less than {@link #size()}
+     * @param path     Path relative to the working directory, with '/' as separator
+     * @return false if the commit did not change the path
+     */
+    public boolean mightContain(int position, String path) {
+        int start = position == 0 ? 0 : getEnd(position - 1);
+        int length = getEnd(position) - start;
+        if (length == 0) {
+            return false;
+        }
+        int offset = HEADER_SIZE + count * 4 + start;
+        for (int bit : getBits(path, length * 8)) {
+            if ((buffer.get(offset + (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int getEnd(int position) {
+        return buffer.getInt(HEADER_SIZE + position * 4);
+    }
+
+    private byte[] getFilter(int position) {
+        int start = position == 0 ? 0 : getEnd(position - 1);
+        byte[] filter = new byte[getEnd(position) - start];
+        buffer.get(HEADER_SIZE + count * 4 + start, filter);
+        return filter;
+    }
+
+    /**
+     * Get the positions of the bits of the path in a filter of the size,
+     * by double hashing.
+     */
+    private static int[] getBits(String path, int size) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int hash1 = murmur3(SEED_1, bytes);
+        // Odd, so that the bits differ in filters whose size is a power of two.
+        int hash2 = murmur3(SEED_2, bytes) | 1;
+        int[] bits = new int[HASHES];
+        for (int i = 0; i < HASHES; i++) {
+            bits[i] = Integer.remainderUnsigned(hash1 + i * hash2, size);
+        }
+        return bits;
+    }
+
+    /**
+     * The 32-bit murmur3 hash of the bytes.
+     */
+    private static int murmur3(int seed, byte[] bytes) {
+        final int c1 = 0xcc9e2d51;
+        final int c2 = 0x1b873593;
+        int hash = seed;
+        int i = 0;
+        for (; i + 4 <= bytes.length; i += 4) {
+            int k = (bytes[i] & 0xff) | (bytes[i + 1] & 0xff) << 8
+                    | (bytes[i + 2] & 0xff) << 16 | (bytes[i + 3] & 0xff) << 24;
+            hash ^= Integer.rotateLeft(k * c1, 15) * c2;
+            hash = Integer.rotateLeft(hash, 13) * 5 + 0xe6546b64;
+        }
+        int k = 0;
+        for (int j = bytes.length - 1; j >= i; j--) {
+            k = k << 8 | (bytes[j] & 0xff);
+        }
+        if (i < bytes.length) {
+            hash ^= Integer.rotateLeft(k * c1, 15) * c2;
+        }
+        hash ^= bytes.length;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
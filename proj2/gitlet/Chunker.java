@@ -0,0 +1,220 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+import static gitlet.MyUtils.*;
+
+/**
+ * Content-defined chunking of large blobs. A file of at least {@link #THRESHOLD}
+ * bytes is cut where a rolling hash of the last bytes hits a pattern, so that an
+ * insertion or a deletion only moves the boundaries next to it and the other chunks
+ * of the file stay the same. Each chunk is stored once, as an object of type
+ * {@link ObjectStore#CHUNK} with the SHA1 of its type and bytes as id, whatever
+ * file, version or commit it comes from. The blob is then an object of type
+ * {@link ObjectStore#CHUNKED} that lists its chunks, under the same id as if it
+ * were stored whole, so trees, the index and the working directory scan do not
+ * know the difference.
+ *
+ * <pre>
+ * chunked &lt;size&gt;\0
+ * &lt;chunk id&gt; &lt;chunk size&gt;\n    for each chunk, in order
+ * </pre>
+ *
+ * The rolling hash is a gear hash: it is shifted left and the random value of the
+ * next byte is added, so its top bits depend on the last 64 bytes only. A boundary
+ * is put where its top {@link #MASK_BITS} bits are 0, but not before
+ * {@link #MIN_SIZE} bytes and at most every {@link #MAX_SIZE} bytes. Chunks are
+ * about {@code MIN_SIZE + 2^MASK_BITS} bytes on average.
+ *
+ * @author Jeffrey
+ */
+public class Chunker {
+
+    /**
+     * Files of at least this many bytes are chunked.
+     */
+    public static final long THRESHOLD = 1024 * 1024;
+
+    /**
+     * Min size of a chunk, except the last one.
+     */
+    static final int MIN_SIZE = 16 * 1024;
+
+    /**
+     * Max size of a chunk.
+     */
+    static final int MAX_SIZE = 256 * 1024;
+
+    /**
+     * Number of top bits of the rolling hash that must be 0 at a boundary.
+     */
+    private static final int MASK_BITS = 16;
+
+    /**
+     * Random value of each byte.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6ea7);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Chunk the content and save the new chunks and the list of chunks, in a single
+     * pass that also hashes the whole content for the blob id.
+     *
+     * @param in     Content
+     * @param length Length of the content in bytes
+     * @param digest Digest already updated with the id prefix of the blob
+     * @param source Path of the content, for errors
+     * @return SHA1 id of the blob
+     */
+    static String save(InputStream in, long length, MessageDigest digest, String source) throws IOException {
+        ByteArrayOutputStream list = new ByteArrayOutputStream();
+        byte[] buffer = new byte[Blob.BUFFER_SIZE];
+        byte[] chunk = new byte[MAX_SIZE];
+        int chunkSize = 0;
+        long hash = 0;
+        long total = 0;
+        int chunks = 0;
+        int newChunks = 0;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            digest.update(buffer, 0, n);
+            total += n;
+            for (int i = 0; i < n; i++) {
+                chunk[chunkSize++] = buffer[i];
+                hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                if (chunkSize >= MIN_SIZE && hash >>> (64 - MASK_BITS) == 0 || chunkSize == MAX_SIZE) {
+                    newChunks += saveChunk(chunk, chunkSize, list) ? 1 : 0;
+                    chunks++;
+                    chunkSize = 0;
+                    hash = 0;
+                }
+            }
+        }
+        if (chunkSize > 0) {
+            newChunks += saveChunk(chunk, chunkSize, list) ? 1 : 0;
+            chunks++;
+        }
+        if (total != length) {
+            throw new IllegalArgumentException(String.format("blob: %s: Changed while reading", source));
+        }
+        String id = toHex(digest.digest());
+        ObjectStore.write(id, ObjectStore.CHUNKED, list.toByteArray());
+        debug("chunk: %s: %d bytes, %d chunks, %d new", source, total, chunks, newChunks);
+        return id;
+    }
+
+    /**
+     * Save the chunk unless it exists, and add it to the list.
+     *
+     * @return true if the chunk is new
+     */
+    private static boolean saveChunk(byte[] chunk, int size, ByteArrayOutputStream list) {
+        byte[] bytes = Arrays.copyOf(chunk, size);
+        String id = Utils.sha1(ObjectStore.CHUNK, bytes);
+        list.writeBytes((id + " " + size + "\n").getBytes(StandardCharsets.UTF_8));
+        if (ObjectStore.contains(id)) {
+            return false;
+        }
+        ObjectStore.write(id, ObjectStore.CHUNK, bytes);
+        return true;
+    }
+
+    /**
+     * Get the ids of the chunks of a chunked blob, in order.
+     *
+     * @param payload Payload of the chunked blob
+     * @return List of SHA1 ids
+     */
+    public static List<String> getChunkIds(byte[] payload) {
+        List<String> chunkIds = new ArrayList<>();
+        String list = new String(payload, StandardCharsets.UTF_8);
+        for (int start = 0; start < list.length(); start = list.indexOf('\n', start) + 1) {
+            chunkIds.add(list.substring(start, list.indexOf(' ', start)));
+        }
+        return chunkIds;
+    }
+
+    /**
+     * Get the size of the content of a chunked blob.
+     *
+     * @param payload Payload of the chunked blob
+     * @return Sum of the sizes of the chunks
+     */
+    public static long getSize(byte[] payload) {
+        long size = 0;
+        String list = new String(payload, StandardCharsets.UTF_8);
+        for (int start = 0; start < list.length(); start = list.indexOf('\n', start) + 1) {
+            size += Long.parseLong(list.substring(list.indexOf(' ', start) + 1, list.indexOf('\n', start)));
+        }
+        return size;
+    }
+
+    /**
+     * Get the ids of the chunks of the object if it is a chunked blob.
+     *
+     * @param content Object content, with its header
+     * @return List of SHA1 ids, empty if the object is not a chunked blob
+     */
+    public static List<String> getChunkIdsOf(byte[] content) {
+        byte[] prefix = (ObjectStore.CHUNKED + " ").getBytes(StandardCharsets.UTF_8);
+        if (content.length < prefix.length || !Arrays.equals(content, 0, prefix.length, prefix, 0, prefix.length)) {
+            return Collections.emptyList();
+        }
+        return getChunkIds(ObjectStore.getPayload(content));
+    }
+
+    /**
+     * Open the content of a chunked blob, which reads one chunk at a time.
+     * The caller must close the stream.
+     *
+     * @param payload Payload of the chunked blob
+     * @return InputStream instance
+     */
+    public static InputStream open(byte[] payload) {
+        Iterator<String> chunkIds = getChunkIds(payload).iterator();
+        return new SequenceInputStream(new Enumeration<>() {
+            @Override
+            public boolean hasMoreElements() {
+                return chunkIds.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String chunkId = chunkIds.next();
+                InputStream in = ObjectStore.open(chunkId);
+                try {
+                    ObjectStore.Header header = ObjectStore.readHeader(in);
+                    if (header == null || !header.type.equals(ObjectStore.CHUNK)) {
+                        in.close();
+                        throw new IllegalArgumentException(String.format("chunk: %s: Not a chunk", chunkId));
+                    }
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+                return in;
+            }
+        });
+    }
+
+    /**
+     * Add the chunks of the chunked blobs among the ids to them.
+     *
+     * @param ids Set of SHA1 ids, updated
+     */
+    public static void markChunks(Set<String> ids) {
+        for (String id : new ArrayList<>(ids)) {
+            if (ObjectStore.isType(id, ObjectStore.CHUNKED)) {
+                ids.addAll(getChunkIds(ObjectStore.readPayload(id)));
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package gitlet;
 // TODO: any imports you need here
 
 import java.io.File;
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -20,6 +21,26 @@ import static gitlet.Utils.*;
  */
 public class Commit implements Serializable {
 
+    private static final long serialVersionUID = 6204686264601914929L;
+
+    /**
+     * Version of the binary format holding the tracked files, the first byte of the payload.
+     * Commits stored before tree objects are written in it.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Version of the binary format holding the root tree id.
+     */
+    private static final int TREE_FORMAT_VERSION = 2;
+
+    /**
+     * Format of the timestamp, such as Thu Jan 1 00:00:00 1970 +0000. Part of the
+     * commit id, so it must not change. Created once per thread, as it is not thread-safe.
+     */
+    private static final ThreadLocal<DateFormat> TIMESTAMP_FORMAT = ThreadLocal.withInitial(() ->
+            new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH));
+
     /**
      * The created date.
      */
@@ -37,8 +58,14 @@ public class Commit implements Serializable {
 
     /**
      * The tracked files Map with file path as key and SHA1 id as value.
+     * Null if the commit has a root tree, which holds them instead.
      */
-    private final Map<String, String> tracked;
+    private Map<String, String> tracked;
+
+    /**
+     * The SHA1 id of the root tree. Null in the commits stored before tree objects.
+     */
+    private final String treeId;
 
     /**
      * The SHA1 id.
@@ -50,11 +77,11 @@ public class Commit implements Serializable {
      */
     private final File file;
 
-    public Commit(String message, List<String> parents, Map<String, String> trackedFilesMap) {
+    public Commit(String message, List<String> parents, String treeId) {
         this.date = new Date();
         this.message = message;
         this.parents = parents;
-        this.tracked = trackedFilesMap;
+        this.treeId = treeId;
         this.id = generateId();
         this.file = getObjectFile(id);
     }
@@ -66,11 +93,46 @@ public class Commit implements Serializable {
         this.date = new Date(0);
         this.message = "initial commit";
         this.parents = new ArrayList<>();
-        this.tracked = new TreeMap<>();
+        this.treeId = Tree.write(Collections.emptyMap());
+        this.id = generateId();
+        this.file = getObjectFile(id);
+    }
+
+    private Commit(Date date, String message, List<String> parents, String treeId) {
+        this.date = date;
+        this.message = message;
+        this.parents = parents;
+        this.treeId = treeId;
         this.id = generateId();
         this.file = getObjectFile(id);
     }
 
+    /**
+     * Commit decoded from the binary format, or built by tools such as benchmarks.
+     * Either the tree id or the tracked files are given.
+     */
+    Commit(String id, Date date, String message, List<String> parents, String treeId, Map<String, String> tracked) {
+        this.date = date;
+        this.message = message;
+        this.parents = parents;
+        this.treeId = treeId;
+        this.tracked = tracked;
+        this.id = id;
+        this.file = getObjectFile(id);
+    }
+
+    /**
+     * Get a copy of this commit with other parents and root tree, keeping the date
+     * and the message. The copy has its own SHA1 id and is not saved.
+     *
+     * @param parents Parent commit SHA1 ids
+     * @param treeId  SHA1 id of the root tree
+     * @return Commit instance
+     */
+    public Commit rewrite(List<String> parents, String treeId) {
+        return new Commit(date, message, new ArrayList<>(parents), treeId);
+    }
+
     /**
      * Get the Date instance when the commit is created.
      *
@@ -90,21 +152,62 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Get the parent commit ids.
+     * Get the parent commit ids. The list cannot be modified, since the commit may be cached.
      *
      * @return Array of parent commit ids.
      */
     public List<String> getParents() {
-        return parents;
+        return Collections.unmodifiableList(parents);
     }
 
     /**
      * Get the tracked files Map with file path as key and SHA1 id as value.
+     * The map cannot be modified, since the commit may be cached. For a commit
+     * with a root tree, the map is built from the trees on each call and not kept,
+     * since the commit was weighed without it when it was cached.
      *
      * @return Map with filepath as key and SHA1 id as value
      */
     public Map<String, String> getTracked() {
-        return tracked;
+        return Collections.unmodifiableMap(tracked != null ? tracked : Tree.getFiles(treeId));
+    }
+
+    /**
+     * Get the SHA1 id of the root tree.
+     *
+     * @return SHA1 id, or null for a commit stored before tree objects
+     */
+    public String getTreeId() {
+        return treeId;
+    }
+
+    /**
+     * Get the files that differ between this commit and the other one. When both
+     * have a tree, directories that did not change are skipped by comparing tree ids.
+     *
+     * @param other Commit instance
+     * @return Map with file path as key and the SHA1 ids in this and in the other commit,
+     * null if absent, as value
+     */
+    public Map<String, String[]> diff(Commit other) {
+        if (treeId != null && other.treeId != null) {
+            return Tree.diff(treeId, other.treeId);
+        }
+        Map<String, String[]> changes = new TreeMap<>();
+        Map<String, String> thisTracked = getTracked();
+        Map<String, String> otherTracked = other.getTracked();
+        for (Map.Entry<String, String> entry : thisTracked.entrySet()) {
+            String otherBlobId = otherTracked.get(entry.getKey());
+            if (!entry.getValue().equals(otherBlobId)) {
+                changes.put(entry.getKey(), new String[]{entry.getValue(), otherBlobId});
+            }
+        }
+        for (Map.Entry<String, String> entry : otherTracked.entrySet()) {
+            if (!thisTracked.containsKey(entry.getKey())) {
+                changes.put(entry.getKey(), new String[]{null, entry.getValue()});
+            }
+        }
+        return changes;
     }
 
     /**
@@ -116,11 +219,11 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Generate a SHA1 id from timestamp, message, parents Array and tracked files Map.
-     * @return
+     * Generate a SHA1 id from timestamp, message, parents Array and root tree id.
+     * @return SHA1 id
      */
     private String generateId() {
-        return sha1(getTimestamp(), message, parents.toString(), tracked.toString());
+        return sha1(getTimestamp(), message, parents.toString(), treeId);
     }
 
     /**
@@ -129,46 +232,136 @@ public class Commit implements Serializable {
      * @return Date and time
      */
     public String getTimestamp() {
-        // Thu Jan 1 00:00:00 1970 +0000
-        DateFormat dateFormat = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z", Locale.ENGLISH);
-        return dateFormat.format(date);
+        return TIMESTAMP_FORMAT.get().format(date);
     }
 
     /**
      * Save this Commit instance to file in objects folder.
      */
     public void save() {
-        saveObjectFile(file, this);
+        ObjectStore.write(id, ObjectStore.COMMIT, encode());
     }
 
     /**
-     * Get a Commit instance from the file with the SHA1 id.
+     * Get a Commit instance from the file with the SHA1 id, through the object cache.
+     * Commits stored as serialized instances are read as well.
      * @param id SHA1 id
      * @return Commit instance
      */
     public static Commit fromFile(String id) {
-        return readObject(getObjectFile(id), Commit.class);
+        return ObjectCache.get(id, Commit.class, Commit::load, Commit::estimateSize);
+    }
+
+    /**
+     * Read and decode the commit from the object store.
+     */
+    private static Commit load(String id) {
+        byte[] payload = ObjectStore.readPayload(id);
+        if (BinaryCodec.isSerialized(payload)) {
+            return ObjectStore.readObject(id, Commit.class);
+        }
+        return decode(id, payload);
+    }
+
+    /**
+     * Estimate the size of the commit in memory, for the object cache.
+     */
+    private static long estimateSize(Commit commit) {
+        long size = 256 + commit.message.length() * 2L + commit.parents.size() * 96L;
+        if (commit.tracked != null) {
+            for (String filePath : commit.tracked.keySet()) {
+                size += 192 + filePath.length() * 2L;
+            }
+        }
+        return size;
     }
 
     /**
-     * Get the commit log.
+     * Encode this commit in the binary format.
+     * <pre>
+     *   version:byte date:varint message:string
+     *   parentCount:varint parent:id*
+     *   treeId:id                                     version 2
+     *   trackedCount:varint (path:path blobId:id)*    version 1
+     * </pre>
+     * Commits with a tree are written in version 2, the others in version 1.
      *
-     * @return Log content
+     * @return Payload bytes
      */
-    public String getLog() {
-        StringBuilder logBuilder = new StringBuilder();
-        logBuilder.append("===").append("\n");
-        logBuilder.append("commit").append(" ").append(id).append("\n");
+    public byte[] encode() {
+        BinaryCodec.Writer writer = new BinaryCodec.Writer();
+        writer.writeByte(treeId != null ? TREE_FORMAT_VERSION : FORMAT_VERSION);
+        writer.writeVarint(date.getTime());
+        writer.writeString(message);
+        writer.writeVarint(parents.size());
+        for (String parent : parents) {
+            writer.writeId(parent);
+        }
+        if (treeId != null) {
+            writer.writeId(treeId);
+            return writer.toByteArray();
+        }
+        writer.writeVarint(tracked.size());
+        for (Map.Entry<String, String> entry : tracked.entrySet()) {
+            writer.writePath(entry.getKey());
+            writer.writeId(entry.getValue());
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode a commit from the binary format.
+     *
+     * @param id      SHA1 id
+     * @param payload Payload bytes
+     * @return Commit instance
+     */
+    public static Commit decode(String id, byte[] payload) {
+        BinaryCodec.Reader reader = new BinaryCodec.Reader(payload);
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION && version != TREE_FORMAT_VERSION) {
+            throw new IllegalArgumentException(String.format("commit: %s: Unknown version %d", id, version));
+        }
+        Date date = new Date(reader.readVarint());
+        String message = reader.readString();
+        int parentCount = reader.readLength();
+        List<String> parents = new ArrayList<>(parentCount);
+        for (int i = 0; i < parentCount; i++) {
+            parents.add(reader.readId());
+        }
+        if (version == TREE_FORMAT_VERSION) {
+            return new Commit(id, date, message, parents, reader.readId(), null);
+        }
+        int trackedCount = reader.readLength();
+        Map<String, String> tracked = new TreeMap<>();
+        for (int i = 0; i < trackedCount; i++) {
+            tracked.put(reader.readPath(), reader.readId());
+        }
+        return new Commit(id, date, message, parents, null, tracked);
+    }
+
+    /**
+     * Print the commit log, followed by an empty line.
+     *
+     * @param out Stream to print to
+     */
+    public void printLog(PrintStream out) {
+        out.print("===\ncommit ");
+        out.print(id);
+        out.print('\n');
         if (parents.size() > 1) {
-            logBuilder.append("Merge:");
+            out.print("Merge:");
             for (String parent : parents) {
-                logBuilder.append(" ").append(parent, 0, 7);
+                out.print(' ');
+                out.print(parent.substring(0, 7));
             }
-            logBuilder.append("\n");
+            out.print('\n');
         }
-        logBuilder.append("Date:").append(" ").append(getTimestamp()).append("\n");
-        logBuilder.append(message).append("\n");
-        return logBuilder.toString();
+        out.print("Date: ");
+        out.print(getTimestamp());
+        out.print('\n');
+        out.print(message);
+        out.print("\n\n");
     }
 
     /**
@@ -179,20 +372,21 @@ public class Commit implements Serializable {
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     public boolean restoreTracked(String filePath) {
-        String blobId = tracked.get(filePath);
+        String blobId = getTracked().get(filePath);
         if (blobId == null) {
             return false;
         }
-        Blob.fromFile(blobId).writeContentToSource();
+        Blob.fromFile(blobId).writeContentTo(new File(filePath));
         return true;
     }
 
     /**
-     * Restore all tracked files, overwriting the existing ones.
+     * Restore all tracked files, overwriting the existing ones
+     * unless their content in the working directory already matches.
+     *
+     * @param currentFilesMap Map with file path as key and SHA1 id in the working directory as value
      */
-    public void restoreAllTracked() {
-        for (String blobId : tracked.values()) {
-            Blob.fromFile(blobId).writeContentToSource();
-        }
+    public void restoreAllTracked(Map<String, String> currentFilesMap) {
+        RestoreEngine.restore(getTracked(), currentFilesMap);
     }
 }
@@ -0,0 +1,474 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * A compact, memory mapped copy of the commit history, so that walking the
+ * graph never reads commit objects. Commits are numbered in the order they
+ * were added, so parents always have a smaller position than their children.
+ *
+ * <pre>
+ * commit-graph
+ *   "GCGR" version:int count:int
+ *   record*    id:byte[20] firstParent:int secondParent:int timestamp:long generation:int
+ * </pre>
+ *
+ * A missing parent is stored as -1. The generation of a root commit is 1,
+ * and of every other commit one more than the max generation of its parents.
+ *
+ * @author Jeffrey
+ */
+public class CommitGraph {
+
+    /**
+     * The commit-graph file.
+     */
+    public static final File FILE = join(Repository.GITLET_DIR, "commit-graph");
+
+    /**
+     * No parent.
+     */
+    public static final int NONE = -1;
+
+    private static final byte[] MAGIC = {'G', 'C', 'G', 'R'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int RECORD_SIZE = ID_BYTES + 4 + 4 + 8 + 4;
+
+    /**
+     * Max number of commits appended after the commit index or the changed-path
+     * filters were written, which are looked up by a linear scan or read. They
+     * are written again beyond this.
+     */
+    private static final int MAX_UNINDEXED = 64;
+
+    /**
+     * The loaded graph, reset whenever the file is written. Guarded by the class,
+     * as daemon requests may run at the same time.
+     */
+    private static CommitGraph loaded;
+
+    /**
+     * Memory mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of commits.
+     */
+    private final int count;
+
+    /**
+     * Sorted index of the commit ids. Loaded on first lookup.
+     */
+    private CommitIndex commitIndex;
+
+    /**
+     * Changed-path Bloom filters of the commits. Loaded on first path-limited walk.
+     */
+    private ChangedPathFilters changedPathFilters;
+
+    /**
+     * Inverted index of the commit messages. Loaded on first search.
+     */
+    private MessageIndex messageIndex;
+
+    private CommitGraph(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE) {
+            throw new IllegalArgumentException(String.format("commit-graph: %s: Truncated file", FILE.getPath()));
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("commit-graph: %s: Bad file", FILE.getPath()));
+        }
+        this.count = buffer.getInt(8);
+        // A torn append may leave records past the count, but never a count past the records.
+        if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE > buffer.limit()) {
+            throw new IllegalArgumentException(String.format("commit-graph: %s: Truncated file", FILE.getPath()));
+        }
+    }
+
+    /**
+     * Tells if the commit-graph file exists.
+     *
+     * @return true if exists
+     */
+    public static boolean exists() {
+        return FILE.exists();
+    }
+
+    /**
+     * Get the commit graph from the file.
+     *
+     * @return CommitGraph instance
+     */
+    public static synchronized CommitGraph get() {
+        if (loaded == null) {
+            try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+                loaded = new CommitGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Drop the loaded graph, so that the file is read again on next access.
+     */
+    public static synchronized void invalidate() {
+        loaded = null;
+    }
+
+    /**
+     * Write a new commit-graph file holding the commits. The file is replaced rather
+     * than overwritten, as the old one may still be mapped.
+     *
+     * @param commits Commit instances, parents before children
+     */
+    public static synchronized void write(List<Commit> commits) {
+        writeContentsAtomically(FILE, encode(commits));
+        // Positions may have changed, so the old index and filters are of no use.
+        CommitIndex.delete();
+        ChangedPathFilters.delete();
+        MessageIndex.delete();
+        loaded = null;
+    }
+
+    /**
+     * Get a commit graph held in memory rather than in the file, for tools such as benchmarks.
+     *
+     * @param commits Commit instances, parents before children
+     * @return CommitGraph instance
+     */
+    static CommitGraph of(List<Commit> commits) {
+        return new CommitGraph(ByteBuffer.wrap(encode(commits)));
+    }
+
+    /**
+     * Encode the commits in the commit-graph format.
+     */
+    private static byte[] encode(List<Commit> commits) {
+        Map<String, Integer> positions = new HashMap<>();
+        List<Integer> generations = new ArrayList<>();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + commits.size() * RECORD_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(commits.size());
+            for (Commit commit : commits) {
+                int[] record = toRecord(commit, positions::get, generations::get);
+                positions.put(commit.getId(), positions.size());
+                generations.add(record[2]);
+                writeRecord(out, commit, record);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Append a new commit. Its parents must be in the graph.
+     *
+     * @param commit Commit instance
+     */
+    public static synchronized void append(Commit commit) {
+        CommitGraph graph = get();
+        int[] record = toRecord(commit, graph::indexOf, graph::getGeneration);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeRecord(out, commit, record);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(FILE, "rw")) {
+            raf.seek(HEADER_SIZE + (long) graph.count * RECORD_SIZE);
+            raf.write(bytes.toByteArray());
+            // The count is written last, so a torn append leaves a valid graph.
+            raf.seek(8);
+            raf.writeInt(graph.count + 1);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        MessageIndex.append(graph.count, commit);
+        loaded = null;
+    }
+
+    /**
+     * Compute the parent positions and the generation of the commit.
+     *
+     * @return Array of first parent, second parent and generation
+     */
+    private static int[] toRecord(Commit commit, Function<String, Integer> positionOf,
+                                  IntUnaryOperator generationOf) {
+        int[] record = {NONE, NONE, 1};
+        List<String> parents = commit.getParents();
+        for (int i = 0; i < parents.size() && i < 2; i++) {
+            Integer position = positionOf.apply(parents.get(i));
+            if (position == null || position < 0) {
+                throw new IllegalArgumentException(
+                        String.format("commit-graph: %s: Parent not in graph", parents.get(i)));
+            }
+            record[i] = position;
+            record[2] = Math.max(record[2], generationOf.applyAsInt(position) + 1);
+        }
+        return record;
+    }
+
+    private static void writeRecord(DataOutputStream out, Commit commit, int[] record) throws IOException {
+        out.write(toBytes(commit.getId()));
+        out.writeInt(record[0]);
+        out.writeInt(record[1]);
+        out.writeLong(commit.getDate().getTime());
+        out.writeInt(record[2]);
+    }
+
+    /**
+     * Get the number of commits.
+     *
+     * @return Number of commits
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the position of the commit.
+     *
+     * @param id Commit SHA1 id
+     * @return Position, or -1 if not in the graph
+     */
+    public int indexOf(String id) {
+        CommitIndex index = getCommitIndex();
+        int position = index.indexOf(id);
+        for (int i = index.size(); i < count && position == NONE; i++) {
+            if (getId(i).equals(id)) {
+                position = i;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Get the ids of the commits that start with the prefix.
+     *
+     * @param prefix Abbreviate SHA1 id of at least 2 hexadecimal characters
+     * @return Set of commit SHA1 ids
+     */
+    public Set<String> idsWithPrefix(String prefix) {
+        CommitIndex index = getCommitIndex();
+        Set<String> ids = new TreeSet<>();
+        for (int position : index.positionsWithPrefix(prefix)) {
+            ids.add(getId(position));
+        }
+        for (int i = index.size(); i < count; i++) {
+            String id = getId(i);
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Get the commit index, writing it again if it is missing or if too many
+     * commits were appended since.
+     */
+    private CommitIndex getCommitIndex() {
+        if (commitIndex == null) {
+            commitIndex = CommitIndex.load();
+            if (commitIndex == null || commitIndex.size() > count || count - commitIndex.size() > MAX_UNINDEXED) {
+                CommitIndex.write(this);
+                commitIndex = CommitIndex.load();
+            }
+        }
+        return commitIndex;
+    }
+
+    /**
+     * Tells if the commit may have changed the path, against its first parent.
+     *
+     * @param position Position of the commit
+     * @param path     Path relative to the working directory, with '/' as separator
+     * @return false if the commit did not change the path, true if it may have
+     * @see ChangedPathFilters#mightContain(int, String)
+     */
+    public boolean mightHaveChanged(int position, String path) {
+        ChangedPathFilters filters = getChangedPathFilters();
+        return position >= filters.size() || filters.mightContain(position, path);
+    }
+
+    /**
+     * Get the changed-path filters, computing the missing ones if there is no
+     * file or if too many commits were appended since.
+     */
+    private ChangedPathFilters getChangedPathFilters() {
+        if (changedPathFilters == null) {
+            changedPathFilters = ChangedPathFilters.load();
+            if (changedPathFilters == null || changedPathFilters.size() > count
+                    || count - changedPathFilters.size() > MAX_UNINDEXED) {
+                ChangedPathFilters.write(this,
+                        changedPathFilters == null || changedPathFilters.size() > count ? null : changedPathFilters);
+                changedPathFilters = ChangedPathFilters.load();
+            }
+        }
+        return changedPathFilters;
+    }
+
+    /**
+     * Get the message index, indexing the commits it does not cover yet, and
+     * sorting it again if too many entries were appended.
+     *
+     * @return MessageIndex instance covering all commits
+     */
+    public MessageIndex getMessageIndex() {
+        if (messageIndex == null) {
+            messageIndex = MessageIndex.load();
+            if (messageIndex == null || messageIndex.size() != count || messageIndex.isFragmented()) {
+                MessageIndex.write(this,
+                        messageIndex == null || messageIndex.size() > count ? null : messageIndex);
+                messageIndex = MessageIndex.load();
+            }
+        }
+        return messageIndex;
+    }
+
+    /**
+     * Get the best common ancestor of two commits.
+     * <p>
+     * Commits are visited from both sides in decreasing generation order, and marked
+     * with the sides they are reachable from. A commit reachable from both sides is a
+     * common ancestor, and its own ancestors are marked stale, as they are never
+     * better. Since parents have a lower generation than their children, a commit is
+     * only visited once all its descendants in the walk are, so the first common
+     * ancestor found is a best one, and the walk stops as soon as only stale commits
+     * are left. When there are several best common ancestors, as after criss-cross
+     * merges, the one with the highest generation, then the latest, is returned.
+     *
+     * @param a Position of a commit
+     * @param b Position of a commit
+     * @return Position of the common ancestor, or -1 if there is none
+     */
+    public int getMergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        final int fromA = 1;
+        final int fromB = 2;
+        final int stale = 4;
+        byte[] flags = new byte[count];
+        Queue<Integer> queue = new PriorityQueue<>(Comparator.<Integer>comparingInt(this::getGeneration)
+                .thenComparingLong(this::getTimestamp).reversed());
+        flags[a] = fromA;
+        flags[b] = fromB;
+        queue.add(a);
+        queue.add(b);
+        int nonStale = 2;
+        int visited = 0;
+        int mergeBase = NONE;
+
+        while (nonStale > 0) {
+            int position = queue.remove();
+            visited++;
+            int positionFlags = flags[position];
+            if ((positionFlags & stale) == 0) {
+                nonStale--;
+                if ((positionFlags & (fromA | fromB)) == (fromA | fromB)) {
+                    if (mergeBase == NONE) {
+                        mergeBase = position;
+                    }
+                    positionFlags |= stale;
+                }
+            }
+            int[] parents = {getFirstParent(position), getSecondParent(position)};
+            for (int parent : parents) {
+                if (parent == NONE || (flags[parent] & positionFlags) == positionFlags) {
+                    continue;
+                }
+                boolean isQueued = flags[parent] != 0;
+                boolean wasStale = (flags[parent] & stale) != 0;
+                flags[parent] |= positionFlags;
+                boolean isStale = (flags[parent] & stale) != 0;
+                if (!isQueued) {
+                    queue.add(parent);
+                    if (!isStale) {
+                        nonStale++;
+                    }
+                } else if (!wasStale && isStale) {
+                    nonStale--;
+                }
+            }
+        }
+        debug("merge-base: %d commits visited", visited);
+        return mergeBase;
+    }
+
+    /**
+     * Get the SHA1 id of the commit at the position.
+     *
+     * @param position Position of the commit
+     * @return Commit SHA1 id
+     */
+    public String getId(int position) {
+        byte[] id = new byte[ID_BYTES];
+        buffer.get(offset(position), id);
+        return toHex(id);
+    }
+
+    /**
+     * Get the position of the first parent.
+     *
+     * @param position Position of the commit
+     * @return Position of the parent, or -1 if none
+     */
+    public int getFirstParent(int position) {
+        return buffer.getInt(offset(position) + ID_BYTES);
+    }
+
+    /**
+     * Get the position of the second parent.
+     *
+     * @param position Position of the commit
+     * @return Position of the parent, or -1 if none
+     */
+    public int getSecondParent(int position) {
+        return buffer.getInt(offset(position) + ID_BYTES + 4);
+    }
+
+    /**
+     * Get the created time of the commit.
+     *
+     * @param position Position of the commit
+     * @return Milliseconds since the epoch
+     */
+    public long getTimestamp(int position) {
+        return buffer.getLong(offset(position) + ID_BYTES + 8);
+    }
+
+    /**
+     * Get the generation number of the commit.
+     *
+     * @param position Position of the commit
+     * @return Generation number
+     */
+    public int getGeneration(int position) {
+        return buffer.getInt(offset(position) + ID_BYTES + 16);
+    }
+
+    private static int offset(int position) {
+        return HEADER_SIZE + position * RECORD_SIZE;
+    }
+}
@@ -0,0 +1,203 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * A sorted, memory mapped table of commit ids and their positions in the
+ * {@link CommitGraph}, so that full and abbreviated ids are resolved by binary search.
+ * It covers the first {@link #size()} commits of the graph, commits appended
+ * after it was written are looked up by the graph itself.
+ *
+ * <pre>
+ * commit-index
+ *   "GCIX" version:int count:int
+ *   fanout:int[256]    number of ids whose first byte is &lt;= i
+ *   entry*             id:byte[20] position:int, sorted by id
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class CommitIndex {
+
+    /**
+     * The commit-index file.
+     */
+    public static final File FILE = join(Repository.GITLET_DIR, "commit-index");
+
+    private static final byte[] MAGIC = {'G', 'C', 'I', 'X'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int ID_BYTES = UID_LENGTH / 2;
+    private static final int ENTRY_SIZE = ID_BYTES + 4;
+
+    /**
+     * Memory mapped file.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Number of commits.
+     */
+    private final int count;
+
+    private CommitIndex(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("commit-index: %s: Bad file", FILE.getPath()));
+        }
+        this.count = buffer.getInt(8);
+    }
+
+    /**
+     * Load the commit index from the file.
+     *
+     * @return CommitIndex instance, or null if there is no file or if it is truncated
+     */
+    public static CommitIndex load() {
+        if (!FILE.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE + FANOUT_SIZE || buffer.getInt(8) < 0
+                    || buffer.capacity() < HEADER_SIZE + FANOUT_SIZE + (long) buffer.getInt(8) * ENTRY_SIZE) {
+                debug("commit-index: %s: Truncated file, ignored", FILE.getPath());
+                return null;
+            }
+            return new CommitIndex(buffer);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write a new commit index covering all commits of the graph.
+     *
+     * @param commitGraph CommitGraph instance
+     */
+    public static void write(CommitGraph commitGraph) {
+        int size = commitGraph.size();
+        String[] ids = new String[size];
+        Integer[] positions = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = commitGraph.getId(i);
+            positions[i] = i;
+        }
+        Arrays.sort(positions, Comparator.comparing(position -> ids[position]));
+
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        for (int i = 1; i < fanout.length; i++) {
+            fanout[i] += fanout[i - 1];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + FANOUT_SIZE + size * ENTRY_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int n : fanout) {
+                out.writeInt(n);
+            }
+            for (int position : positions) {
+                out.write(toBytes(ids[position]));
+                out.writeInt(position);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        // Replaced rather than overwritten, as the old file may still be mapped.
+        writeContentsAtomically(FILE, bytes.toByteArray());
+    }
+
+    /**
+     * Delete the commit index, for example because the graph was written again.
+     */
+    public static void delete() {
+        if (FILE.exists()) {
+            rm(FILE);
+        }
+    }
+
+    /**
+     * Get the number of commits covered.
+     *
+     * @return Number of commits
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get the graph position of the commit.
+     *
+     * @param id Commit SHA1 id
+     * @return Position, or -1 if not in the index
+     */
+    public int indexOf(String id) {
+        int entry = lowerBound(id);
+        if (entry < count && getId(entry).equals(id)) {
+            return getPosition(entry);
+        }
+        return CommitGraph.NONE;
+    }
+
+    /**
+     * Get the graph positions of the commits whose id starts with the prefix.
+     *
+     * @param prefix Abbreviate SHA1 id of at least 2 hexadecimal characters
+     * @return List of positions
+     */
+    public List<Integer> positionsWithPrefix(String prefix) {
+        List<Integer> positions = new ArrayList<>();
+        for (int entry = lowerBound(prefix); entry < count && getId(entry).startsWith(prefix); entry++) {
+            positions.add(getPosition(entry));
+        }
+        return positions;
+    }
+
+    /**
+     * Binary search the first entry whose id is not less than the key,
+     * within the fanout bucket of its first byte.
+     */
+    private int lowerBound(String key) {
+        int first = Integer.parseInt(key.substring(0, 2), 16);
+        int low = first == 0 ? 0 : getFanout(first - 1);
+        int high = getFanout(first);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getId(mid).compareTo(key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int getFanout(int i) {
+        return buffer.getInt(HEADER_SIZE + i * 4);
+    }
+
+    private String getId(int entry) {
+        byte[] id = new byte[ID_BYTES];
+        buffer.get(HEADER_SIZE + FANOUT_SIZE + entry * ENTRY_SIZE, id);
+        return toHex(id);
+    }
+
+    private int getPosition(int entry) {
+        return buffer.getInt(HEADER_SIZE + FANOUT_SIZE + entry * ENTRY_SIZE + ID_BYTES);
+    }
+}
@@ -0,0 +1,209 @@
+package gitlet;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * Serves gitlet commands from a long-running JVM over a Unix domain socket,
+ * so that scripts issuing many commands pay JVM startup and class loading once,
+ * and reuse the loaded commit graph, packs and object cache.
+ * <p>
+ * A request is the number of arguments in decimal, then each argument in UTF-8,
+ * each followed by a NUL byte. A request without arguments stops the daemon.
+ * The response is the output of the command, and the daemon closes the connection
+ * when the command is done. So a script can also talk to the daemon without a JVM:
+ * <pre>
+ * printf '2\0commit\0message\0' | nc -U .gitlet/daemon.sock
+ * </pre>
+ * Commands are served one at a time. Before each command the state kept in memory
+ * is dropped if HEAD, the branch heads, the index, the commit graph or the packs
+ * were written by another process.
+ *
+ * @author Jeffrey
+ */
+public class Daemon {
+
+    /**
+     * The socket the daemon listens on.
+     */
+    public static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+
+    /**
+     * Max number of arguments of a request.
+     */
+    private static final int MAX_ARGS = 1024;
+
+    /**
+     * Serve commands until stopped. Exit with message if a daemon is already running.
+     */
+    public static void serve() {
+        if (SOCKET.exists()) {
+            if (isRunning()) {
+                exit("A daemon is already running.");
+            }
+            rm(SOCKET);
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            SOCKET.deleteOnExit();
+            message("Serving commands on %s.", SOCKET.getPath());
+            String stamp = null;
+            while (true) {
+                try (SocketChannel channel = server.accept()) {
+                    String[] args = readRequest(channel);
+                    PrintStream out = new PrintStream(
+                            new BufferedOutputStream(Channels.newOutputStream(channel)), false, StandardCharsets.UTF_8);
+                    if (args.length == 0) {
+                        out.println("Daemon stopped.");
+                        out.flush();
+                        break;
+                    }
+                    if (!Repository.getStateStamp().equals(stamp)) {
+                        Repository.invalidateCaches();
+                    }
+                    serve(args, out);
+                    // Written by the command itself, which keeps the caches up to date.
+                    stamp = Repository.getStateStamp();
+                } catch (IOException e) {
+                    debug("daemon: %s", e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (SOCKET.exists()) {
+                rm(SOCKET);
+            }
+        }
+    }
+
+    /**
+     * Run the command with its output sent to the stream.
+     */
+    private static void serve(String[] args, PrintStream out) {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setOut(out);
+        System.setErr(out);
+        try {
+            Main.run(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace(out);
+        } finally {
+            ObjectCache.debugStats();
+            out.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    /**
+     * Stop the running daemon. Exit with message if there is none.
+     */
+    public static void stop() {
+        if (!SOCKET.exists() || !send(new String[0], System.out)) {
+            exit("No daemon is running.");
+        }
+    }
+
+    /**
+     * Send the command to the running daemon and print its output.
+     *
+     * @param args Command and operands
+     * @return true if the command was served, false if no daemon is running
+     */
+    public static boolean forward(String[] args) {
+        return args.length > 0 && SOCKET.exists() && send(args, System.out);
+    }
+
+    /**
+     * Tells if a daemon accepts connections on the socket.
+     */
+    private static boolean isRunning() {
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath())).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Send a request and copy the response to the stream.
+     *
+     * @return false if the daemon could not be reached
+     */
+    private static boolean send(String[] args, PrintStream out) {
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(UnixDomainSocketAddress.of(SOCKET.toPath()));
+        } catch (IOException e) {
+            // A socket left behind by a daemon that did not stop cleanly.
+            debug("daemon: %s: %s", SOCKET.getPath(), e.getMessage());
+            return false;
+        }
+        try (channel) {
+            ByteArrayOutputStream request = new ByteArrayOutputStream();
+            request.write(Integer.toString(args.length).getBytes(StandardCharsets.UTF_8));
+            request.write(0);
+            for (String arg : args) {
+                request.write(arg.getBytes(StandardCharsets.UTF_8));
+                request.write(0);
+            }
+            OutputStream channelOut = Channels.newOutputStream(channel);
+            channelOut.write(request.toByteArray());
+            channelOut.flush();
+            Channels.newInputStream(channel).transferTo(out);
+            out.flush();
+            return true;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the arguments of a request.
+     */
+    private static String[] readRequest(SocketChannel channel) throws IOException {
+        InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+        int count;
+        try {
+            count = Integer.parseInt(readField(in));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad request");
+        }
+        if (count < 0 || count > MAX_ARGS) {
+            throw new IOException("Bad request");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readField(in);
+        }
+        return args;
+    }
+
+    /**
+     * Read the bytes up to the next NUL byte as a string.
+     */
+    private static String readField(InputStream in) throws IOException {
+        ByteArrayOutputStream field = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != 0) {
+            if (b == -1) {
+                throw new IOException("Incomplete request");
+            }
+            field.write(b);
+        }
+        return field.toString(StandardCharsets.UTF_8);
+    }
+}
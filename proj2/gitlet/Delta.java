@@ -0,0 +1,264 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Binary delta encoding between two versions of an object.
+ *
+ * <pre>
+ * delta := varint(baseLength) varint(resultLength) op*
+ * op    := 0x80 varint(offset) varint(length)   copy length bytes from the base
+ *        | n (1..127) byte[n]                  insert the next n literal bytes
+ * </pre>
+ *
+ * @author Jeffrey
+ */
+public class Delta {
+
+    /**
+     * Size of the blocks used to find matches in the base.
+     */
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * Max number of literal bytes in a single insert op.
+     */
+    private static final int MAX_INSERT = 0x7f;
+
+    /**
+     * Flag of the copy op.
+     */
+    private static final int COPY = 0x80;
+
+    /**
+     * Max number of base candidates compared for a single block.
+     */
+    private static final int MAX_CANDIDATES = 64;
+
+    /**
+     * Multiplier of the rolling hash.
+     */
+    private static final int PRIME = 31;
+
+    /**
+     * Compute the delta that turns base into target.
+     *
+     * @param base   Base content
+     * @param target Target content
+     * @return Delta bytes
+     */
+    public static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        BlockIndex index = new BlockIndex(base);
+        int pow = 1;
+        for (int i = 1; i < BLOCK_SIZE; i++) {
+            pow *= PRIME;
+        }
+
+        int insertStart = 0;
+        int pos = 0;
+        int hash = target.length >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (pos + BLOCK_SIZE <= target.length) {
+            int matchOffset = -1;
+            int matchLength = 0;
+            int tries = 0;
+            for (int candidate = index.first(hash); candidate >= 0 && tries < MAX_CANDIDATES;
+                 candidate = index.next(candidate), tries++) {
+                int length = matchLength(base, candidate, target, pos);
+                if (length > matchLength) {
+                    matchOffset = candidate;
+                    matchLength = length;
+                }
+            }
+            if (matchLength >= BLOCK_SIZE) {
+                // Grow the match backwards into the pending literal bytes.
+                while (pos > insertStart && matchOffset > 0 && base[matchOffset - 1] == target[pos - 1]) {
+                    matchOffset--;
+                    pos--;
+                    matchLength++;
+                }
+                writeInsert(out, target, insertStart, pos);
+                out.write(COPY);
+                writeVarint(out, matchOffset);
+                writeVarint(out, matchLength);
+                pos += matchLength;
+                insertStart = pos;
+                if (pos + BLOCK_SIZE <= target.length) {
+                    hash = hash(target, pos);
+                }
+            } else {
+                if (pos + BLOCK_SIZE < target.length) {
+                    hash = (hash - target[pos] * pow) * PRIME + target[pos + BLOCK_SIZE];
+                }
+                pos++;
+            }
+        }
+        writeInsert(out, target, insertStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Apply the delta to the base and return the target content.
+     *
+     * @param base  Base content
+     * @param delta Delta bytes
+     * @return Target content
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        int baseLength = readVarint(delta, pos);
+        int resultLength = readVarint(delta, pos);
+        if (baseLength != base.length) {
+            throw new IllegalArgumentException("delta: base length mismatch");
+        }
+        byte[] result = new byte[resultLength];
+        int resultPos = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]++] & 0xff;
+            if (op == COPY) {
+                int offset = readVarint(delta, pos);
+                int length = readVarint(delta, pos);
+                System.arraycopy(base, offset, result, resultPos, length);
+                resultPos += length;
+            } else {
+                System.arraycopy(delta, pos[0], result, resultPos, op);
+                pos[0] += op;
+                resultPos += op;
+            }
+        }
+        if (resultPos != resultLength) {
+            throw new IllegalArgumentException("delta: result length mismatch");
+        }
+        return result;
+    }
+
+    /**
+     * Hash the block starting at the offset.
+     */
+    private static int hash(byte[] content, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            h = h * PRIME + content[offset + i];
+        }
+        return h;
+    }
+
+    /**
+     * Length of the common run of base from baseOffset and target from targetOffset.
+     */
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = 0;
+        while (baseOffset + length < base.length && targetOffset + length < target.length
+                && base[baseOffset + length] == target[targetOffset + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write target[from, to) as insert ops.
+     */
+    private static void writeInsert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        while (from < to) {
+            int length = Math.min(MAX_INSERT, to - from);
+            out.write(length);
+            out.write(target, from, length);
+            from += length;
+        }
+    }
+
+    /**
+     * Write an unsigned LEB128 varint.
+     */
+    static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7fL) != 0) {
+            out.write((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Read an unsigned LEB128 varint and advance pos[0] past it.
+     */
+    static int readVarint(byte[] bytes, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = bytes[pos[0]++] & 0xff;
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * Hash chains of the block-aligned offsets of the base.
+     */
+    private static class BlockIndex {
+
+        /**
+         * Mask selecting the bucket of a hash. The number of buckets is a power of two.
+         */
+        private final int mask;
+
+        /**
+         * Last block offset per bucket, -1 if empty.
+         */
+        private final int[] heads;
+
+        /**
+         * Previous block offset in the same bucket, indexed by block number.
+         */
+        private final int[] chain;
+
+        /**
+         * Hash of each block, indexed by block number.
+         */
+        private final int[] hashes;
+
+        BlockIndex(byte[] base) {
+            int blocks = base.length / BLOCK_SIZE;
+            int buckets = Integer.highestOneBit(Math.max(blocks, 1) * 2);
+            mask = buckets - 1;
+            heads = new int[buckets];
+            chain = new int[blocks];
+            hashes = new int[blocks];
+            Arrays.fill(heads, -1);
+            for (int block = 0; block < blocks; block++) {
+                int h = hash(base, block * BLOCK_SIZE);
+                int bucket = h & mask;
+                hashes[block] = h;
+                chain[block] = heads[bucket];
+                heads[bucket] = block;
+            }
+        }
+
+        /**
+         * First base offset whose block has the hash, -1 if none.
+         */
+        int first(int hash) {
+            return skip(heads[hash & mask], hash);
+        }
+
+        /**
+         * Next base offset after the given one with the same hash, -1 if none.
+         */
+        int next(int offset) {
+            int block = offset / BLOCK_SIZE;
+            return skip(chain[block], hashes[block]);
+        }
+
+        private int skip(int block, int hash) {
+            while (block >= 0 && hashes[block] != hash) {
+                block = chain[block];
+            }
+            return block < 0 ? -1 : block * BLOCK_SIZE;
+        }
+    }
+}
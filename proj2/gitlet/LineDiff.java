@@ -0,0 +1,452 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line diff with the linear space variant of the Myers O(ND) algorithm.
+ * <p>
+ * Lines are first interned: equal lines of both texts get the same int, so that the
+ * algorithm compares ints rather than bytes. Lines found in only one of the texts
+ * cannot be matched, so they are set aside before the search and become edits
+ * afterwards, which keeps D small when many lines are new. The common prefix and suffix are trimmed,
+ * then the middle snake of the shortest edit script is found by running the greedy
+ * algorithm forward from the start and backward from the end at once, until the paths
+ * overlap, and the parts before and after it are diffed in turn. This takes
+ * O((N + M) D) time and O(N + M) space for texts of N and M lines and D edits.
+ *
+ * @author Jeffrey
+ */
+public class LineDiff {
+
+    /**
+     * Number of unchanged lines around the changes in a hunk.
+     */
+    public static final int CONTEXT = 3;
+
+    /**
+     * Get the edits that turn the text a into the text b.
+     *
+     * @param a Text
+     * @param b Text
+     * @return Edits in increasing order
+     */
+    public static List<Edit> diff(Text a, Text b) {
+        Interner interner = new Interner(a.size() + b.size());
+        int[] linesA = interner.intern(a);
+        int[] linesB = interner.intern(b);
+        boolean[] isInA = new boolean[interner.size()];
+        boolean[] isInB = new boolean[interner.size()];
+        for (int line : linesA) {
+            isInA[line] = true;
+        }
+        for (int line : linesB) {
+            isInB[line] = true;
+        }
+        int[] keptA = keep(linesA, isInB);
+        int[] keptB = keep(linesB, isInA);
+        int[] reducedA = new int[keptA.length];
+        int[] reducedB = new int[keptB.length];
+        for (int i = 0; i < keptA.length; i++) {
+            reducedA[i] = linesA[keptA[i]];
+        }
+        for (int i = 0; i < keptB.length; i++) {
+            reducedB[i] = linesB[keptB[i]];
+        }
+
+        // Every gap between two lines matched in the reduced sequences is an edit.
+        List<Edit> reducedEdits = diff(reducedA, reducedB);
+        reducedEdits.add(new Edit(reducedA.length, reducedA.length, reducedB.length, reducedB.length));
+        List<Edit> edits = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        int endA = 0;
+        int endB = 0;
+        for (Edit reducedEdit : reducedEdits) {
+            for (; i < reducedEdit.beginA; i++, j++) {
+                if (keptA[i] > endA || keptB[j] > endB) {
+                    edits.add(new Edit(endA, keptA[i], endB, keptB[j]));
+                }
+                endA = keptA[i] + 1;
+                endB = keptB[j] + 1;
+            }
+            i = reducedEdit.endA;
+            j = reducedEdit.endB;
+        }
+        if (endA < linesA.length || endB < linesB.length) {
+            edits.add(new Edit(endA, linesA.length, endB, linesB.length));
+        }
+        return edits;
+    }
+
+    /**
+     * Get the indexes of the lines that are in the other text.
+     */
+    private static int[] keep(int[] lines, boolean[] isInOther) {
+        int[] kept = new int[lines.length];
+        int count = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (isInOther[lines[i]]) {
+                kept[count++] = i;
+            }
+        }
+        return Arrays.copyOf(kept, count);
+    }
+
+    /**
+     * Get the edits that turn the sequence a into the sequence b.
+     *
+     * @param a Sequence of interned lines
+     * @param b Sequence of interned lines
+     * @return Edits in increasing order
+     */
+    public static List<Edit> diff(int[] a, int[] b) {
+        List<Edit> edits = new ArrayList<>();
+        int max = (a.length + b.length + 1) / 2 + 1;
+        int[] forward = new int[2 * max + 1];
+        int[] backward = new int[2 * max + 1];
+        diff(a, 0, a.length, b, 0, b.length, forward, backward, max, edits);
+        return edits;
+    }
+
+    /**
+     * Add the edits between a[aBegin, aEnd) and b[bBegin, bEnd).
+     */
+    private static void diff(int[] a, int aBegin, int aEnd, int[] b, int bBegin, int bEnd,
+                             int[] forward, int[] backward, int offset, List<Edit> edits) {
+        while (aBegin < aEnd && bBegin < bEnd && a[aBegin] == b[bBegin]) {
+            aBegin++;
+            bBegin++;
+        }
+        while (aBegin < aEnd && bBegin < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+        if (aBegin == aEnd || bBegin == bEnd) {
+            if (aBegin < aEnd || bBegin < bEnd) {
+                addEdit(edits, aBegin, aEnd, bBegin, bEnd);
+            }
+            return;
+        }
+        int[] snake = findMiddleSnake(a, aBegin, aEnd, b, bBegin, bEnd, forward, backward, offset);
+        diff(a, aBegin, snake[0], b, bBegin, snake[1], forward, backward, offset, edits);
+        diff(a, snake[2], aEnd, b, snake[3], bEnd, forward, backward, offset, edits);
+    }
+
+    /**
+     * Add the edit, merged with the last one if they touch, so that a deletion
+     * next to an insertion reads as one change.
+     */
+    private static void addEdit(List<Edit> edits, int beginA, int endA, int beginB, int endB) {
+        if (!edits.isEmpty()) {
+            Edit last = edits.get(edits.size() - 1);
+            if (last.endA == beginA && last.endB == beginB) {
+                edits.set(edits.size() - 1, new Edit(last.beginA, endA, last.beginB, endB));
+                return;
+            }
+        }
+        edits.add(new Edit(beginA, endA, beginB, endB));
+    }
+
+    /**
+     * Find the middle snake of the shortest edit script of two sequences that differ
+     * in their first and in their last element.
+     *
+     * @return Start x, start y, end x and end y of the snake
+     */
+    private static int[] findMiddleSnake(int[] a, int aBegin, int aEnd, int[] b, int bBegin, int bEnd,
+                                         int[] forward, int[] backward, int offset) {
+        int n = aEnd - aBegin;
+        int m = bEnd - bBegin;
+        int delta = n - m;
+        boolean isOdd = (delta & 1) != 0;
+        // Furthest x reached on each diagonal k = x - y, forward from the start, and
+        // backward from the end counting from the end on diagonal delta - k.
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && forward[offset + k - 1] < forward[offset + k + 1]
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aBegin + x] == b[bBegin + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                int backwardK = delta - k;
+                if (isOdd && backwardK >= -(d - 1) && backwardK <= d - 1
+                        && x + backward[offset + backwardK] >= n) {
+                    return new int[]{aBegin + startX, bBegin + startY, aBegin + x, bBegin + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && backward[offset + k - 1] < backward[offset + k + 1]
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aEnd - 1 - x] == b[bEnd - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                int forwardK = delta - k;
+                if (!isOdd && forwardK >= -d && forwardK <= d && x + forward[offset + forwardK] >= n) {
+                    return new int[]{aEnd - x, bEnd - y, aEnd - startX, bEnd - startY};
+                }
+            }
+        }
+        throw new IllegalArgumentException("diff: No middle snake");
+    }
+
+    /**
+     * Print the edits in the unified format, with {@link #CONTEXT} lines of context.
+     *
+     * @param out   PrintStream instance
+     * @param a     Old text
+     * @param b     New text
+     * @param edits Edits that turn a into b
+     */
+    public static void printUnified(PrintStream out, Text a, Text b, List<Edit> edits) {
+        int i = 0;
+        while (i < edits.size()) {
+            // Edits closer than twice the context share a hunk.
+            int last = i;
+            while (last + 1 < edits.size() && edits.get(last + 1).beginA - edits.get(last).endA <= 2 * CONTEXT) {
+                last++;
+            }
+            Edit first = edits.get(i);
+            Edit end = edits.get(last);
+            int aBegin = Math.max(first.beginA - CONTEXT, 0);
+            int bBegin = Math.max(first.beginB - CONTEXT, 0);
+            int aEnd = Math.min(end.endA + CONTEXT, a.size());
+            int bEnd = Math.min(end.endB + CONTEXT, b.size());
+            out.printf("@@ -%s +%s @@%n", formatRange(aBegin, aEnd), formatRange(bBegin, bEnd));
+            int aLine = aBegin;
+            for (int j = i; j <= last; j++) {
+                Edit edit = edits.get(j);
+                for (; aLine < edit.beginA; aLine++) {
+                    a.printLine(out, ' ', aLine);
+                }
+                for (int line = edit.beginA; line < edit.endA; line++) {
+                    a.printLine(out, '-', line);
+                }
+                for (int line = edit.beginB; line < edit.endB; line++) {
+                    b.printLine(out, '+', line);
+                }
+                aLine = edit.endA;
+            }
+            for (; aLine < aEnd; aLine++) {
+                a.printLine(out, ' ', aLine);
+            }
+            i = last + 1;
+        }
+    }
+
+    /**
+     * Format a range of lines as start,count with lines numbered from 1. An empty
+     * range starts at the line before it, and a count of 1 is left out.
+     */
+    private static String formatRange(int begin, int end) {
+        int count = end - begin;
+        if (count == 1) {
+            return Integer.toString(begin + 1);
+        }
+        return (count == 0 ? begin : begin + 1) + "," + count;
+    }
+
+    /**
+     * Gives equal lines the same int, counting from 0, with an open addressing hash
+     * table of the lines seen so far.
+     */
+    private static class Interner {
+
+        /**
+         * Int of the line plus one in each slot, 0 for an empty slot.
+         */
+        private final int[] slots;
+
+        /**
+         * Text, line index and hash of the first line seen with each int.
+         */
+        private final Text[] texts;
+        private final int[] lines;
+        private final int[] hashes;
+
+        private int size;
+
+        Interner(int maxLines) {
+            slots = new int[Integer.highestOneBit(Math.max(maxLines, 1)) * 4];
+            texts = new Text[maxLines];
+            lines = new int[maxLines];
+            hashes = new int[maxLines];
+        }
+
+        int[] intern(Text text) {
+            int[] ids = new int[text.size()];
+            int mask = slots.length - 1;
+            for (int line = 0; line < ids.length; line++) {
+                int hash = text.hash(line);
+                int slot = (hash ^ hash >>> 16) & mask;
+                while (true) {
+                    int id = slots[slot] - 1;
+                    if (id < 0) {
+                        id = size++;
+                        texts[id] = text;
+                        lines[id] = line;
+                        hashes[id] = hash;
+                        slots[slot] = id + 1;
+                    } else if (hashes[id] != hash || !text.lineEquals(line, texts[id], lines[id])) {
+                        slot = (slot + 1) & mask;
+                        continue;
+                    }
+                    ids[line] = id;
+                    break;
+                }
+            }
+            return ids;
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A region that differs: the lines [beginA, endA) of a are replaced by the lines
+     * [beginB, endB) of b. One of the ranges may be empty.
+     */
+    public static class Edit {
+
+        public final int beginA;
+        public final int endA;
+        public final int beginB;
+        public final int endB;
+
+        Edit(int beginA, int endA, int beginB, int endB) {
+            this.beginA = beginA;
+            this.endA = endA;
+            this.beginB = beginB;
+            this.endB = endB;
+        }
+    }
+
+    /**
+     * A text split in lines. Each line keeps its line feed, so that a last line
+     * without one differs from the same line with one.
+     */
+    public static class Text {
+
+        /**
+         * The content.
+         */
+        private final byte[] content;
+
+        /**
+         * Start offset of each line, followed by the length of the content.
+         */
+        private final int[] starts;
+
+        /**
+         * Split the content in lines.
+         *
+         * @param content Content bytes
+         */
+        public Text(byte[] content) {
+            this.content = content;
+            int count = 0;
+            for (byte c : content) {
+                if (c == '\n') {
+                    count++;
+                }
+            }
+            boolean hasPartialLine = content.length > 0 && content[content.length - 1] != '\n';
+            starts = new int[count + (hasPartialLine ? 1 : 0) + 1];
+            int line = 1;
+            for (int i = 0; i < content.length; i++) {
+                if (content[i] == '\n' && line < starts.length) {
+                    starts[line++] = i + 1;
+                }
+            }
+            starts[starts.length - 1] = content.length;
+        }
+
+        /**
+         * Get the number of lines.
+         *
+         * @return Number of lines
+         */
+        public int size() {
+            return starts.length - 1;
+        }
+
+        /**
+         * Tells if the content looks binary, that is if it has a NUL byte in its first 8000 bytes.
+         *
+         * @return true if binary
+         */
+        public boolean isBinary() {
+            for (int i = 0; i < content.length && i < 8000; i++) {
+                if (content[i] == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Get the hash of the line.
+         */
+        private int hash(int line) {
+            int hash = 0;
+            for (int i = starts[line]; i < starts[line + 1]; i++) {
+                hash = 31 * hash + content[i];
+            }
+            return hash;
+        }
+
+        /**
+         * Tells if the line has the same bytes as a line of another text.
+         */
+        boolean lineEquals(int line, Text other, int otherLine) {
+            return Arrays.equals(content, starts[line], starts[line + 1],
+                    other.content, other.starts[otherLine], other.starts[otherLine + 1]);
+        }
+
+        /**
+         * Write the line, with its line feed if it has one.
+         *
+         * @param out  PrintStream instance
+         * @param line Index of the line
+         */
+        public void writeLine(PrintStream out, int line) {
+            out.write(content, starts[line], starts[line + 1] - starts[line]);
+        }
+
+        /**
+         * Tells if the line ends with a line feed, which only the last line may not.
+         *
+         * @param line Index of the line
+         * @return true if it has a line feed
+         */
+        boolean hasLineFeed(int line) {
+            return content[starts[line + 1] - 1] == '\n';
+        }
+
+        /**
+         * Print the line after the prefix, followed by a marker if it has no line feed.
+         */
+        private void printLine(PrintStream out, char prefix, int line) {
+            out.print(prefix);
+            writeLine(out, line);
+            if (!hasLineFeed(line)) {
+                out.print("\n\\ No newline at end of file\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Three-way line merge, in the manner of diff3. Both sides are diffed against the
+ * base with {@link LineDiff}, then the edits of both sides are walked together in
+ * base order. Edits that overlap form a group: a group changed on one side
+ * only takes that side, a group changed the same way on both sides takes either,
+ * and any other group is a conflict, written between markers. Lines outside the
+ * groups are copied from the base.
+ *
+ * <pre>
+ * &lt;&lt;&lt;&lt;&lt;&lt;&lt; HEAD
+ * lines of the current branch
+ * =======
+ * lines of the given branch
+ * &gt;&gt;&gt;&gt;&gt;&gt;&gt;
+ * </pre>
+ *
+ * The result is written line by line as it is found, never held as a whole.
+ *
+ * @author Jeffrey
+ */
+public class LineMerge {
+
+    /**
+     * Merge the changes of both sides since the base and write the result.
+     *
+     * @param out    PrintStream instance
+     * @param base   Text at the split point
+     * @param ours   Text of the current branch
+     * @param theirs Text of the given branch
+     * @return Number of conflicts
+     */
+    public static int merge(PrintStream out, LineDiff.Text base, LineDiff.Text ours, LineDiff.Text theirs) {
+        List<LineDiff.Edit> oursEdits = LineDiff.diff(base, ours);
+        List<LineDiff.Edit> theirsEdits = LineDiff.diff(base, theirs);
+        int conflicts = 0;
+        int line = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oursEdits.size() || j < theirsEdits.size()) {
+            // Start the group with the edit that begins first, then take in the edits
+            // of either side that overlap it.
+            int firstI = i;
+            int firstJ = j;
+            int beginA;
+            int endA;
+            if (j == theirsEdits.size()
+                    || i < oursEdits.size() && oursEdits.get(i).beginA <= theirsEdits.get(j).beginA) {
+                beginA = oursEdits.get(i).beginA;
+                endA = oursEdits.get(i++).endA;
+            } else {
+                beginA = theirsEdits.get(j).beginA;
+                endA = theirsEdits.get(j++).endA;
+            }
+            while (true) {
+                if (i < oursEdits.size() && isInGroup(oursEdits.get(i), beginA, endA)) {
+                    endA = Math.max(endA, oursEdits.get(i++).endA);
+                } else if (j < theirsEdits.size() && isInGroup(theirsEdits.get(j), beginA, endA)) {
+                    endA = Math.max(endA, theirsEdits.get(j++).endA);
+                } else {
+                    break;
+                }
+            }
+
+            writeLines(out, base, line, beginA);
+            line = endA;
+            if (firstJ == j) {
+                writeLines(out, ours, oursEdits, firstI, i, beginA, endA);
+            } else if (firstI == i) {
+                writeLines(out, theirs, theirsEdits, firstJ, j, beginA, endA);
+            } else {
+                int oursBegin = mapBegin(oursEdits.get(firstI), beginA);
+                int oursEnd = mapEnd(oursEdits.get(i - 1), endA);
+                int theirsBegin = mapBegin(theirsEdits.get(firstJ), beginA);
+                int theirsEnd = mapEnd(theirsEdits.get(j - 1), endA);
+                if (linesEqual(ours, oursBegin, oursEnd, theirs, theirsBegin, theirsEnd)) {
+                    writeLines(out, ours, oursBegin, oursEnd);
+                } else {
+                    conflicts++;
+                    out.print("<<<<<<< HEAD\n");
+                    writeConflictLines(out, ours, oursBegin, oursEnd);
+                    out.print("=======\n");
+                    writeConflictLines(out, theirs, theirsBegin, theirsEnd);
+                    out.print(endA < base.size() ? ">>>>>>>\n" : ">>>>>>>");
+                }
+            }
+        }
+        writeLines(out, base, line, base.size());
+        return conflicts;
+    }
+
+    /**
+     * Tells if the edit overlaps the group of base lines [beginA, endA). Changes to
+     * adjacent lines do not overlap, but an insertion does overlap a change or an
+     * insertion right before or after it, since the order of the lines is unknown.
+     */
+    private static boolean isInGroup(LineDiff.Edit edit, int beginA, int endA) {
+        return edit.beginA < endA || edit.beginA == endA && (edit.beginA == edit.endA || beginA == endA);
+    }
+
+    /**
+     * Get the line of the side where a group of the base beginning at the line
+     * begins, given the first edit of the side in the group.
+     */
+    private static int mapBegin(LineDiff.Edit first, int beginA) {
+        return first.beginB - (first.beginA - beginA);
+    }
+
+    /**
+     * Get the line of the side where a group of the base ending at the line ends,
+     * given the last edit of the side in the group.
+     */
+    private static int mapEnd(LineDiff.Edit last, int endA) {
+        return last.endB + (endA - last.endA);
+    }
+
+    /**
+     * Write the base lines [beginA, endA) as changed by the edits [from, to) of a side.
+     */
+    private static void writeLines(PrintStream out, LineDiff.Text side, List<LineDiff.Edit> edits,
+                                   int from, int to, int beginA, int endA) {
+        writeLines(out, side, mapBegin(edits.get(from), beginA), mapEnd(edits.get(to - 1), endA));
+    }
+
+    private static void writeLines(PrintStream out, LineDiff.Text text, int begin, int end) {
+        for (int line = begin; line < end; line++) {
+            text.writeLine(out, line);
+        }
+    }
+
+    /**
+     * Write the lines of a side of a conflict, ending them with a line feed if the
+     * last one has none, so that the next marker starts a line.
+     */
+    private static void writeConflictLines(PrintStream out, LineDiff.Text text, int begin, int end) {
+        writeLines(out, text, begin, end);
+        if (begin < end && !text.hasLineFeed(end - 1)) {
+            out.print("\n");
+        }
+    }
+
+    private static boolean linesEqual(LineDiff.Text a, int aBegin, int aEnd, LineDiff.Text b, int bBegin, int bEnd) {
+        if (aEnd - aBegin != bEnd - bBegin) {
+            return false;
+        }
+        for (int i = 0; i < aEnd - aBegin; i++) {
+            if (!a.lineEquals(aBegin + i, b, bBegin + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
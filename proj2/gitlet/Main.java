@@ -1,6 +1,9 @@
 package gitlet;
 
+import java.util.Arrays;
+
 import static gitlet.MyUtils.exit;
+import static gitlet.Utils.message;
 
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author Jeffrey
@@ -11,6 +14,39 @@ public class Main {
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            try {
+                Repository.checkWorkingDir();
+                if (args.length == 1) {
+                    Daemon.serve();
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    Daemon.stop();
+                } else {
+                    exit("Incorrect operands.");
+                }
+            } catch (GitletException e) {
+                System.out.println(e.getMessage());
+            }
+            return;
+        }
+        if (Daemon.forward(args)) {
+            return;
+        }
+        try {
+            run(args);
+        } catch (GitletException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            ObjectCache.debugStats();
+        }
+    }
+
+    /**
+     * Run the command.
+     *
+     * @param args Command and operands
+     */
+    static void run(String[] args) {
         if (args.length == 0) {
             exit("Please enter a command.");
         }
@@ -22,9 +58,10 @@ public class Main {
                 break;
             case "add":
                 Repository.checkWorkingDir();
-                validateNumArgs(args, 2);
-                String addFileName = args[1];
-                new Repository().add(addFileName);
+                if (args.length < 2) {
+                    exit("Incorrect operands.");
+                }
+                new Repository().add(Arrays.asList(args).subList(1, args.length));
                 break;
             case "commit":
                 Repository.checkWorkingDir();
@@ -43,16 +80,20 @@ public class Main {
                 break;
             case "log":
                 Repository.checkWorkingDir();
-                validateNumArgs(args, 1);
-                new Repository().log();
+                LogOptions logOptions = LogOptions.parse(args, true);
+                new Repository().log(logOptions.skip, logOptions.maxCount, logOptions.fileName);
                 break;
             case "global-log":
                 Repository.checkWorkingDir();
-                validateNumArgs(args, 1);
-                Repository.globalLog();
+                LogOptions globalLogOptions = LogOptions.parse(args, false);
+                Repository.globalLog(globalLogOptions.skip, globalLogOptions.maxCount);
                 break;
             case "find":
                 Repository.checkWorkingDir();
+                if (args.length == 3 && args[1].equals("--contains")) {
+                    Repository.findContaining(args[2]);
+                    break;
+                }
                 validateNumArgs(args, 2);
                 String message = args[1];
                 if (message.isEmpty()) {
@@ -116,11 +157,124 @@ public class Main {
                 String mergeBranchName = args[1];
                 new Repository().merge(mergeBranchName);
                 break;
+            case "add-remote":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 3);
+                Remote.add(args[1], args[2]);
+                break;
+            case "rm-remote":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 2);
+                Remote.remove(args[1]);
+                break;
+            case "push":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 3);
+                new Repository().push(args[1], args[2]);
+                break;
+            case "fetch":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 3);
+                Repository.fetch(args[1], args[2]);
+                break;
+            case "pull":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 3);
+                new Repository().pull(args[1], args[2]);
+                break;
+            case "diff":
+                Repository.checkWorkingDir();
+                if (args.length > 3) {
+                    exit("Incorrect operands.");
+                }
+                new Repository().diff(Arrays.asList(args).subList(1, args.length));
+                break;
+            case "repack":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 1);
+                Repository.repack();
+                break;
+            case "gc":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 1);
+                Repository.gc();
+                break;
+            case "migrate":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 1);
+                Repository.migrate();
+                break;
+            case "cat-file":
+                Repository.checkWorkingDir();
+                validateNumArgs(args, 3);
+                Repository.catFile(args[1], args[2]);
+                break;
             default:
                 exit("No command with that name exists.");
         }
     }
 
+    /**
+     * Options of log and global-log: [-n count] [--skip count], and for log [-- file].
+     */
+    private static class LogOptions {
+
+        /**
+         * Max number of commits to print, or -1 for all.
+         */
+        private int maxCount = -1;
+
+        /**
+         * Number of commits to skip before printing.
+         */
+        private int skip;
+
+        /**
+         * Name of the file to print the commits of, or null.
+         */
+        private String fileName;
+
+        /**
+         * Parse the options after the command. Exit with message if they are incorrect.
+         *
+         * @param args       Command and operands
+         * @param allowsFile Whether -- file is allowed
+         * @return LogOptions instance
+         */
+        static LogOptions parse(String[] args, boolean allowsFile) {
+            LogOptions options = new LogOptions();
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    exit("Incorrect operands.");
+                }
+                switch (args[i]) {
+                    case "-n":
+                        options.maxCount = parseCount(args[i + 1]);
+                        break;
+                    case "--skip":
+                        options.skip = parseCount(args[i + 1]);
+                        break;
+                    case "--":
+                        if (!allowsFile || i + 2 != args.length) {
+                            exit("Incorrect operands.");
+                        }
+                        options.fileName = args[i + 1];
+                        break;
+                    default:
+                        exit("Incorrect operands.");
+                }
+            }
+            return options;
+        }
+
+        private static int parseCount(String arg) {
+            if (!arg.matches("[0-9]{1,9}")) {
+                exit("Incorrect operands.");
+            }
+            return Integer.parseInt(arg);
+        }
+    }
+
     /**
      * Checks the number of arguments versus the expected number.
      *
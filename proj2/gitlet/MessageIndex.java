@@ -0,0 +1,320 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * An inverted index of the commit messages, from the hash of each whole message
+ * and of each word in it to the positions of the commits in the {@link CommitGraph},
+ * so that find reads only the commits that may match.
+ *
+ * <pre>
+ * message-index
+ *   "GMIX" version:int sorted:int commits:int
+ *   entry*     key:long position:int
+ * </pre>
+ *
+ * The first {@code sorted} entries are sorted by key then position, and are found by
+ * binary search. The entries of new commits are appended after them in commit order,
+ * and are scanned, until there are more than {@link #MAX_UNSORTED} and the file is
+ * written again. It covers the first {@code commits} commits of the graph, which is
+ * written last on append, so a torn append is indexed again.
+ * <p>
+ * Keys are 64-bit FNV-1a hashes, so they may collide, and the commits found must
+ * be read to check their message.
+ *
+ * @author Jeffrey
+ */
+public class MessageIndex {
+
+    /**
+     * The message-index file.
+     */
+    public static final File FILE = join(Repository.GITLET_DIR, "message-index");
+
+    private static final byte[] MAGIC = {'G', 'M', 'I', 'X'};
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 8 + 4;
+
+    /**
+     * Max number of entries appended after the sorted ones.
+     */
+    private static final int MAX_UNSORTED = 4096;
+
+    /**
+     * Hashed before a whole message, so that its key differs from the key of the same word.
+     */
+    private static final byte MESSAGE_KEY = 'm';
+
+    /**
+     * Hashed before a word.
+     */
+    private static final byte WORD_KEY = 'w';
+
+    /**
+     * Memory mapped file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Number of sorted entries.
+     */
+    private final int sorted;
+
+    /**
+     * Number of entries.
+     */
+    private final int entries;
+
+    /**
+     * Number of commits covered.
+     */
+    private final int commits;
+
+    private MessageIndex(ByteBuffer buffer) {
+        this.buffer = buffer;
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(0, magic);
+        if (!Arrays.equals(magic, MAGIC) || buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("message-index: %s: Bad file", FILE.getPath()));
+        }
+        this.sorted = buffer.getInt(8);
+        this.commits = buffer.getInt(12);
+        this.entries = (buffer.capacity() - HEADER_SIZE) / ENTRY_SIZE;
+    }
+
+    /**
+     * Load the message index from the file.
+     *
+     * @return MessageIndex instance, or null if there is no file
+     */
+    public static MessageIndex load() {
+        if (!FILE.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(FILE.toPath(), StandardOpenOption.READ)) {
+            return new MessageIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write a new message index covering all commits of the graph, with all entries sorted.
+     * The entries of the commits covered by the previous index are copied, the others
+     * are computed by reading the commits.
+     *
+     * @param commitGraph CommitGraph instance
+     * @param previous    Previous index of the same graph, or null
+     */
+    public static void write(CommitGraph commitGraph, MessageIndex previous) {
+        int kept = previous == null ? 0 : Math.min(previous.commits, commitGraph.size());
+        List<long[]> entryList = new ArrayList<>();
+        if (previous != null) {
+            for (int entry = 0; entry < previous.entries; entry++) {
+                if (previous.getPosition(entry) < kept) {
+                    entryList.add(new long[]{previous.getKey(entry), previous.getPosition(entry)});
+                }
+            }
+        }
+        for (int position = kept; position < commitGraph.size(); position++) {
+            String message = Commit.fromFile(commitGraph.getId(position)).getMessage();
+            for (long key : getKeys(message)) {
+                entryList.add(new long[]{key, position});
+            }
+        }
+        entryList.sort(Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+        debug("message-index: %d commits copied, %d read, %d entries",
+                kept, commitGraph.size() - kept, entryList.size());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + entryList.size() * ENTRY_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entryList.size());
+            out.writeInt(commitGraph.size());
+            for (long[] entry : entryList) {
+                out.writeLong(entry[0]);
+                out.writeInt((int) entry[1]);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        // Replaced rather than overwritten, as the previous index may be mapped from it.
+        writeContentsAtomically(FILE, bytes.toByteArray());
+    }
+
+    /**
+     * Append the entries of a new commit, if the index covers all the commits before it.
+     * Otherwise the commit is indexed on the next lookup.
+     *
+     * @param position Position of the commit in the graph
+     * @param commit   Commit instance
+     */
+    public static void append(int position, Commit commit) {
+        MessageIndex index = load();
+        if (index == null || index.commits != position) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (long key : getKeys(commit.getMessage())) {
+                out.writeLong(key);
+                out.writeInt(position);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(FILE, "rw")) {
+            raf.seek(HEADER_SIZE + (long) index.entries * ENTRY_SIZE);
+            raf.write(bytes.toByteArray());
+            raf.setLength(raf.getFilePointer());
+            raf.seek(12);
+            raf.writeInt(position + 1);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Delete the message index, for example because the graph was written again.
+     */
+    public static void delete() {
+        if (FILE.exists()) {
+            rm(FILE);
+        }
+    }
+
+    /**
+     * Get the number of commits covered.
+     *
+     * @return Number of commits
+     */
+    public int size() {
+        return commits;
+    }
+
+    /**
+     * Tells if so many entries were appended that the index should be sorted again.
+     *
+     * @return true if it should be written again
+     */
+    public boolean isFragmented() {
+        return entries - sorted > MAX_UNSORTED;
+    }
+
+    /**
+     * Get the positions of the commits that may have the message.
+     *
+     * @param message Whole message
+     * @return Positions in increasing order
+     */
+    public SortedSet<Integer> positionsWithMessage(String message) {
+        return positionsWithKey(hash(MESSAGE_KEY, message));
+    }
+
+    /**
+     * Get the positions of the commits that may have all the words in their message.
+     *
+     * @param words Words, as returned by {@link #getWords(String)}
+     * @return Positions in increasing order
+     */
+    public SortedSet<Integer> positionsWithWords(Collection<String> words) {
+        SortedSet<Integer> positions = null;
+        for (String word : words) {
+            SortedSet<Integer> wordPositions = positionsWithKey(hash(WORD_KEY, word));
+            if (positions == null) {
+                positions = wordPositions;
+            } else {
+                positions.retainAll(wordPositions);
+            }
+            if (positions.isEmpty()) {
+                break;
+            }
+        }
+        return positions == null ? new TreeSet<>() : positions;
+    }
+
+    /**
+     * Get the positions of the entries with the key, in the covered commits.
+     */
+    private SortedSet<Integer> positionsWithKey(long key) {
+        SortedSet<Integer> positions = new TreeSet<>();
+        int low = 0;
+        int high = sorted;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getKey(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        for (int entry = low; entry < sorted && getKey(entry) == key; entry++) {
+            positions.add(getPosition(entry));
+        }
+        for (int entry = sorted; entry < entries; entry++) {
+            if (getKey(entry) == key) {
+                positions.add(getPosition(entry));
+            }
+        }
+        positions.removeIf(position -> position >= commits);
+        return positions;
+    }
+
+    /**
+     * Get the distinct words of the text: the runs of letters and digits, in lower case.
+     *
+     * @param text Text
+     * @return Set of words
+     */
+    public static Set<String> getWords(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Get the keys of the message and of its words.
+     */
+    private static List<Long> getKeys(String message) {
+        List<Long> keys = new ArrayList<>();
+        keys.add(hash(MESSAGE_KEY, message));
+        for (String word : getWords(message)) {
+            keys.add(hash(WORD_KEY, word));
+        }
+        return keys;
+    }
+
+    /**
+     * The 64-bit FNV-1a hash of the kind byte and the UTF-8 bytes of the text.
+     */
+    private static long hash(byte kind, String text) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private long getKey(int entry) {
+        return buffer.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    private int getPosition(int entry) {
+        return buffer.getInt(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+    }
+}
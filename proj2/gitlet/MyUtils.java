@@ -1,6 +1,8 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.function.Supplier;
 
 import static gitlet.Utils.*;
@@ -11,6 +13,11 @@ import static gitlet.Utils.*;
  */
 public class MyUtils {
 
+    /**
+     * Lowercase hexadecimal digits.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Create a directory from the File object.
      *
@@ -22,6 +29,17 @@ public class MyUtils {
         }
     }
 
+    /**
+     * Create the directory and its missing parents, unless it exists.
+     *
+     * @param dir File instance
+     */
+    public static void mkdirs(File dir) {
+        if (!dir.mkdirs() && !dir.isDirectory()) {
+            throw new IllegalArgumentException(String.format("mkdir: %s: Failed to create.", dir.getPath()));
+        }
+    }
+
     /**
      * Delete the file.
      *
@@ -34,29 +52,37 @@ public class MyUtils {
     }
 
     /**
-     * Print a message and exit with status code 0.
+     * Write the bytes to a temporary file next to the file, then rename it over the
+     * file, so that readers see either the old or the new content, never a partial one.
      *
-     * @param message String to print
-     * @param args    Arguments referenced by the format specifiers in the format string
+     * @param file  File instance
+     * @param bytes Content
      */
-    public static void exit(String message, Object... args) {
-        message(message, args);
-        System.exit(0);
+    public static void writeContentsAtomically(File file, byte[] bytes) {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(file.getName() + "-", ".tmp", file.getParentFile());
+            writeContents(tempFile, (Object) bytes);
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (tempFile != null && tempFile.exists()) {
+                rm(tempFile);
+            }
+        }
     }
 
     /**
-     * Tells if the deserialized object instance of given class.
+     * Stop the command with a message, which is printed by {@link Main}
+     * before exiting with status code 0.
      *
-     * @param file File instance
-     * @param clazz Target class
-     * @return true if is instanced
+     * @param message String to print
+     * @param args    Arguments referenced by the format specifiers in the format string
      */
-    public static boolean isFileInstanceOf(File file, Class<?> clazz) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-            return clazz.isInstance(ois.readObject());
-        } catch (IOException | ClassNotFoundException e) {
-            return false;
-        }
+    public static void exit(String message, Object... args) {
+        throw new GitletException(String.format(message, args));
     }
 
     /**
@@ -90,18 +116,32 @@ public class MyUtils {
     }
 
     /**
-     * Save the serializable object to the file path.
-     * Create a parent directory if not exists.
+     * Convert a hexadecimal SHA1 id to raw bytes.
      *
-     * @param file File instance
-     * @param obj Serializable object
+     * @param id SHA1 id
+     * @return 20 bytes
+     */
+    public static byte[] toBytes(String id) {
+        byte[] bytes = new byte[UID_LENGTH / 2];
+        for (int i = 0; i < UID_LENGTH / 2; i++) {
+            bytes[i] = (byte) Integer.parseInt(id.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert raw SHA1 bytes to the hexadecimal id.
+     *
+     * @param bytes 20 bytes
+     * @return SHA1 id
      */
-    public static void saveObjectFile(File file, Serializable obj) {
-        File dir = file.getParentFile();
-        if (!dir.exists()) {
-            mkdir(dir);
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
         }
-        writeObject(file, obj);
+        return new String(chars);
     }
 
     /**
@@ -113,4 +153,46 @@ public class MyUtils {
     public static <T> Lazy<T> lazy(Supplier<T> delegate) {
         return new Lazy<>(delegate);
     }
+
+    /**
+     * Tells if debug output is enabled, by the system property gitlet.debug
+     * or the environment variable GITLET_DEBUG.
+     *
+     * @return true if enabled
+     */
+    public static boolean isDebug() {
+        String value = System.getProperty("gitlet.debug", System.getenv("GITLET_DEBUG"));
+        return value != null && !value.isEmpty() && !value.equals("0") && !value.equals("false");
+    }
+
+    /**
+     * Print a debug message to stderr if debug output is enabled.
+     *
+     * @param message String to print
+     * @param args    Arguments referenced by the format specifiers in the format string
+     */
+    public static void debug(String message, Object... args) {
+        if (isDebug()) {
+            System.err.printf("gitlet: " + message + "%n", args);
+        }
+    }
+
+    /**
+     * Get the number of threads used by parallel work, set by the system property
+     * gitlet.parallelism or the environment variable GITLET_PARALLELISM.
+     * Defaults to the number of available processors.
+     *
+     * @return Number of threads, at least 1
+     */
+    public static int getParallelism() {
+        String value = System.getProperty("gitlet.parallelism", System.getenv("GITLET_PARALLELISM"));
+        if (value != null) {
+            try {
+                return Math.max(1, Integer.parseInt(value.trim()));
+            } catch (NumberFormatException ignored) {
+                // Fall back to the default.
+            }
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
 }
@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import static gitlet.MyUtils.*;
+
+/**
+ * A bounded, least recently used cache of decoded objects in front of the object
+ * store, so that objects read several times during one command are decoded once.
+ * Entries are weighed by their approximate size in memory, and the least recently
+ * used ones are evicted once the total exceeds {@link #MAX_WEIGHT}.
+ * <p>
+ * Cached objects are shared, so they must not be modified. Hits, misses and
+ * evictions are counted, and reported after each command when debug output is enabled.
+ *
+ * @author Jeffrey
+ */
+public class ObjectCache {
+
+    /**
+     * Max total weight of the cached objects in bytes.
+     */
+    private static final long MAX_WEIGHT = 32L * 1024 * 1024;
+
+    /**
+     * Cached objects with SHA1 id as key, in access order.
+     */
+    private static final Map<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    private static long weight;
+    private static long hits;
+    private static long misses;
+    private static long evictions;
+
+    /**
+     * Get the cached object, or load and cache it.
+     *
+     * @param id       SHA1 id
+     * @param clazz    Class of the object, objects of other classes with the same id are loaded again
+     * @param loader   Function that loads the object
+     * @param weigher  Function that returns the approximate size of the object in bytes
+     * @return Object instance
+     * @param <T> Type of the object
+     */
+    public static <T> T get(String id, Class<T> clazz, Function<String, T> loader, ToLongFunction<T> weigher) {
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null && clazz.isInstance(entry.value)) {
+                hits++;
+                return clazz.cast(entry.value);
+            }
+            misses++;
+        }
+        // Loaded outside the lock, so that threads restoring files decode in parallel.
+        T value = loader.apply(id);
+        long valueWeight = weigher.applyAsLong(value);
+        if (valueWeight > MAX_WEIGHT / 4) {
+            return value;
+        }
+        synchronized (entries) {
+            Entry previous = entries.put(id, new Entry(value, valueWeight));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += valueWeight;
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (weight > MAX_WEIGHT && iterator.hasNext()) {
+                weight -= iterator.next().weight;
+                iterator.remove();
+                evictions++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Print the hits, misses and evictions since the last report, if debug output
+     * is enabled, and reset them.
+     */
+    public static void debugStats() {
+        synchronized (entries) {
+            debug("cache: %d hits, %d misses, %d evictions, %d objects (%d bytes) cached",
+                    hits, misses, evictions, entries.size(), weight);
+            hits = 0;
+            misses = 0;
+            evictions = 0;
+        }
+    }
+
+    /**
+     * A cached object and its weight.
+     */
+    private static class Entry {
+
+        private final Object value;
+
+        private final long weight;
+
+        Entry(Object value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
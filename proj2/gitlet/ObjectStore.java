@@ -0,0 +1,700 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * The object database. Objects are stored either as loose files in
+ * objects/xx/ or in packs in objects/pack, and are read from both transparently.
+ * <p>
+ * Every object starts with the header "&lt;type&gt; &lt;size&gt;\0" followed by size bytes
+ * of payload, and loose objects are deflated as a whole. So the type and the size
+ * of an object are known from its first bytes. Objects written before the header
+ * are serialized Blob or Commit instances, whose type is read from the class name
+ * at the start of the serialization stream.
+ *
+ * @author Jeffrey
+ */
+public class ObjectStore {
+
+    /**
+     * The pack directory.
+     */
+    public static final File PACK_DIR = join(Repository.OBJECTS_DIR, "pack");
+
+    /**
+     * Type of file content objects.
+     */
+    public static final String BLOB = "blob";
+
+    /**
+     * Type of commit objects.
+     */
+    public static final String COMMIT = "commit";
+
+    /**
+     * Type of directory objects.
+     */
+    public static final String TREE = "tree";
+
+    /**
+     * Type of file content objects stored as a list of chunks, see {@link Chunker}.
+     */
+    public static final String CHUNKED = "chunked";
+
+    /**
+     * Type of the chunks of chunked file content objects.
+     */
+    public static final String CHUNK = "chunk";
+
+    /**
+     * Max length of a header, enough for the longest type and a long size.
+     */
+    private static final int MAX_HEADER_LENGTH = 32;
+
+    /**
+     * Magic number and version at the start of a serialization stream,
+     * followed by TC_OBJECT and TC_CLASSDESC.
+     */
+    private static final int[] SERIALIZATION_PREFIX = {0xAC, 0xED, 0x00, 0x05, 0x73, 0x72};
+
+    /**
+     * First byte of a zlib stream with the default window size. Loose objects written
+     * before compression start with the serialization magic 0xACED instead.
+     */
+    private static final int ZLIB_HEADER = 0x78;
+
+    /**
+     * Loose objects larger than this are left out of packs, so that repack never
+     * holds a large object in memory.
+     */
+    private static final long BIG_FILE_THRESHOLD = 32L * 1024 * 1024;
+
+    /**
+     * Max length of a delta chain. Reading an object applies at most this many deltas.
+     */
+    private static final int MAX_DELTA_DEPTH = 16;
+
+    /**
+     * Packs in the pack directory. Loaded on first access.
+     */
+    private static List<PackFile> packs;
+
+    /**
+     * Get all packs in the pack directory.
+     *
+     * @return List of PackFile instances
+     */
+    private static synchronized List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] packFiles = PACK_DIR.listFiles((dir, name) -> name.endsWith(".pack"));
+            if (packFiles != null) {
+                for (File packFile : packFiles) {
+                    packs.add(new PackFile(packFile));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Close and drop the packs, so that the pack directory is listed again on next access.
+     */
+    public static synchronized void invalidate() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    /**
+     * Tells if the object exists, either loose or packed.
+     *
+     * @param id SHA1 id
+     * @return true if exists
+     */
+    public static boolean contains(String id) {
+        if (getObjectFile(id).exists()) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Open the content of the object. Loose objects are streamed from disk and inflated
+     * on the fly if they are compressed. The caller must close the stream.
+     *
+     * @param id SHA1 id
+     * @return InputStream instance
+     */
+    public static InputStream open(String id) {
+        File file = getObjectFile(id);
+        if (file.exists()) {
+            return openLoose(file);
+        }
+        for (PackFile pack : getPacks()) {
+            byte[] content = pack.read(id);
+            if (content != null) {
+                return new ByteArrayInputStream(content);
+            }
+        }
+        throw new IllegalArgumentException(String.format("object: %s: Not found", id));
+    }
+
+    /**
+     * Open the content of a loose object file, of this or of another repository,
+     * inflating it if it is compressed. The caller must close the stream.
+     *
+     * @param file Loose object file
+     * @return InputStream instance
+     */
+    static InputStream openLoose(File file) {
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(file), Blob.BUFFER_SIZE);
+            in.mark(1);
+            int first = in.read();
+            in.reset();
+            return first == ZLIB_HEADER ? new InflaterInputStream(in, new Inflater(), Blob.BUFFER_SIZE) : in;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the content of the object.
+     *
+     * @param id SHA1 id
+     * @return Object content
+     */
+    public static byte[] read(String id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the payload of the object, which is the whole object if it has no header.
+     *
+     * @param id SHA1 id
+     * @return Payload bytes
+     */
+    public static byte[] readPayload(String id) {
+        return getPayload(read(id));
+    }
+
+    /**
+     * Get the payload of the object content, which is the whole content if it has no header.
+     *
+     * @param bytes Object content
+     * @return Payload bytes
+     */
+    static byte[] getPayload(byte[] bytes) {
+        InputStream in = new ByteArrayInputStream(bytes);
+        try {
+            if (readHeader(in) == null) {
+                return bytes;
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Read the object and deserialize its payload. Only objects stored as serialized
+     * Java instances, before the binary format, can be read this way.
+     *
+     * @param id            SHA1 id
+     * @param expectedClass Class of the object
+     * @return Object instance
+     * @param <T> Type of the object
+     */
+    public static <T extends Serializable> T readObject(String id, Class<T> expectedClass) {
+        return deserialize(readPayload(id), expectedClass);
+    }
+
+    /**
+     * Write the payload as a loose object with the header.
+     * Nothing is written if the object already exists.
+     *
+     * @param id      SHA1 id
+     * @param type    Type of the object
+     * @param payload Payload bytes
+     */
+    public static void write(String id, String type, byte[] payload) {
+        if (!contains(id)) {
+            write(id, type, payload, false);
+        }
+    }
+
+    /**
+     * Write the payload as a loose object with the header, replacing the loose object
+     * if any. A packed copy is left in place but is no longer read.
+     *
+     * @param id      SHA1 id
+     * @param type    Type of the object
+     * @param payload Payload bytes
+     */
+    public static void rewrite(String id, String type, byte[] payload) {
+        write(id, type, payload, true);
+    }
+
+    private static void write(String id, String type, byte[] payload, boolean replace) {
+        File tempFile = createTempFile();
+        try {
+            try (OutputStream out = openForWrite(tempFile, type, payload.length)) {
+                out.write(payload);
+            }
+            if (replace) {
+                File file = getObjectFile(id);
+                if (!file.getParentFile().exists()) {
+                    mkdir(file.getParentFile());
+                }
+                Files.move(tempFile.toPath(), file.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                moveToStore(tempFile, id);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (tempFile.exists()) {
+                rm(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Create an empty temporary file in the objects folder, to be written and then
+     * moved into place with {@link #moveToStore(File, String)}.
+     *
+     * @return File instance
+     */
+    static File createTempFile() {
+        try {
+            return File.createTempFile("tmp-", null, Repository.OBJECTS_DIR);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Open the temporary file for writing a loose object and write its header.
+     * The caller must write exactly size bytes of payload and close the stream.
+     *
+     * @param tempFile Temporary file
+     * @param type     Type of the object
+     * @param size     Size of the payload in bytes
+     * @return OutputStream instance
+     */
+    static OutputStream openForWrite(File tempFile, String type, long size) throws IOException {
+        OutputStream out = new DeflaterOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile), Blob.BUFFER_SIZE));
+        out.write((type + " " + size + "\0").getBytes(StandardCharsets.UTF_8));
+        return out;
+    }
+
+    /**
+     * Move the written temporary file to the path of the object, unless the object exists.
+     *
+     * @param tempFile Temporary file
+     * @param id       SHA1 id
+     */
+    static void moveToStore(File tempFile, String id) throws IOException {
+        if (contains(id)) {
+            return;
+        }
+        File file = getObjectFile(id);
+        File dir = file.getParentFile();
+        // Another thread may create the directory at the same time.
+        if (!dir.mkdir() && !dir.isDirectory()) {
+            throw new IllegalArgumentException(String.format("mkdir: %s: Failed to create.", dir.getPath()));
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the header at the start of the object and leave the stream at the payload.
+     *
+     * @param in Stream at the start of the object
+     * @return Header, or null if the object has no header
+     */
+    static Header readHeader(InputStream in) throws IOException {
+        StringBuilder type = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 'a' && c <= 'z' && type.length() < MAX_HEADER_LENGTH) {
+            type.append((char) c);
+        }
+        if (c != ' ' || type.length() == 0) {
+            return null;
+        }
+        long size = 0;
+        int digits = 0;
+        while ((c = in.read()) >= '0' && c <= '9' && digits < MAX_HEADER_LENGTH) {
+            size = size * 10 + (c - '0');
+            digits++;
+        }
+        return c == 0 && digits > 0 ? new Header(type.toString(), size) : null;
+    }
+
+    /**
+     * Get the header of the object, reading only its first bytes.
+     * For an object without header, the type is taken from the serialized class name
+     * and the size is the length of the serialization stream.
+     *
+     * @param id SHA1 id
+     * @return Header
+     */
+    public static Header getHeader(String id) {
+        try (InputStream in = open(id)) {
+            Header header = readHeader(in);
+            if (header != null) {
+                return header;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (DataInputStream in = new DataInputStream(open(id))) {
+            for (int b : SERIALIZATION_PREFIX) {
+                if (in.readUnsignedByte() != b) {
+                    throw new IllegalArgumentException(String.format("object: %s: Unknown format", id));
+                }
+            }
+            String className = in.readUTF();
+            String type;
+            if (className.equals(Blob.class.getName())) {
+                type = BLOB;
+            } else if (className.equals(Commit.class.getName())) {
+                type = COMMIT;
+            } else {
+                throw new IllegalArgumentException(String.format("object: %s: Unknown class %s", id, className));
+            }
+            long size = SERIALIZATION_PREFIX.length + 2 + className.length() + in.transferTo(OutputStream.nullOutputStream());
+            return new Header(type, size);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Tells if the object is of the type, without reading its payload.
+     *
+     * @param id   SHA1 id
+     * @param type Type of the object
+     * @return true if the object exists and is of the type
+     */
+    public static boolean isType(String id, String type) {
+        try {
+            return getHeader(id).type.equals(type);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get all object ids, loose or packed, that start with the prefix.
+     *
+     * @param prefix Abbreviate SHA1 id, at least 2 characters
+     * @return Set of SHA1 ids
+     */
+    @SuppressWarnings("ConstantConditions")
+    public static Set<String> idsWithPrefix(String prefix) {
+        Set<String> ids = new TreeSet<>();
+        String dirName = getObjectDirName(prefix);
+        String fileNamePrefix = getObjectFileName(prefix);
+        File dir = join(Repository.OBJECTS_DIR, dirName);
+        if (dir.isDirectory()) {
+            for (String fileName : dir.list()) {
+                if (fileName.startsWith(fileNamePrefix)) {
+                    ids.add(dirName + fileName);
+                }
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            ids.addAll(pack.idsWithPrefix(prefix));
+        }
+        return ids;
+    }
+
+    /**
+     * Get the ids of all objects, loose or packed.
+     *
+     * @return Set of SHA1 ids
+     */
+    public static Set<String> ids() {
+        Set<String> ids = new TreeSet<>(looseIds());
+        for (PackFile pack : getPacks()) {
+            ids.addAll(pack.ids());
+        }
+        return ids;
+    }
+
+    /**
+     * Get the total size of the loose objects and the packs on disk.
+     *
+     * @return Size in bytes
+     */
+    public static long size() {
+        long size = 0;
+        for (String id : looseIds()) {
+            size += getObjectFile(id).length();
+        }
+        for (PackFile pack : getPacks()) {
+            size += pack.size();
+        }
+        return size;
+    }
+
+    /**
+     * Tells if the object is stored in a pack.
+     *
+     * @param id SHA1 id
+     * @return true if packed
+     */
+    public static boolean isPacked(String id) {
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the ids of all loose objects.
+     *
+     * @return List of SHA1 ids
+     */
+    @SuppressWarnings("ConstantConditions")
+    private static List<String> looseIds() {
+        List<String> ids = new ArrayList<>();
+        File[] dirs = Repository.OBJECTS_DIR.listFiles(file -> file.isDirectory() && file.getName().length() == 2);
+        for (File dir : dirs) {
+            for (String fileName : dir.list()) {
+                ids.add(dir.getName() + fileName);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Pack all loose and packed objects into a single new pack, then delete the
+     * loose objects and the old packs. Loose objects bigger than {@link #BIG_FILE_THRESHOLD}
+     * once inflated stay loose.
+     * <p>
+     * Every commit is stored as a delta against its first parent, and every blob as
+     * a delta against the previous version of the same file in history.
+     *
+     * @param commits Reachable commits, parents before children
+     * @return Result of the repack, or null if there is nothing to repack
+     */
+    public static RepackResult repack(List<Commit> commits) {
+        return repack(commits, Collections.emptySet());
+    }
+
+    /**
+     * Repack all objects, leaving out the dropped ones.
+     *
+     * @param commits Reachable commits, parents before children
+     * @param dropped SHA1 ids of the objects not to keep
+     * @return Result of the repack, or null if there is nothing to repack
+     * @see #repack(List)
+     */
+    public static RepackResult repack(List<Commit> commits, Set<String> dropped) {
+        List<String> looseIds = new ArrayList<>();
+        for (String id : looseIds()) {
+            if (getHeader(id).size <= BIG_FILE_THRESHOLD) {
+                looseIds.add(id);
+            }
+        }
+        List<PackFile> oldPacks = getPacks();
+        if (looseIds.isEmpty() && oldPacks.size() <= 1 && dropped.isEmpty()) {
+            return null;
+        }
+
+        Set<String> ids = new LinkedHashSet<>(looseIds);
+        long sizeBefore = 0;
+        for (String id : looseIds) {
+            sizeBefore += getObjectFile(id).length();
+        }
+        for (PackFile pack : oldPacks) {
+            ids.addAll(pack.ids());
+            sizeBefore += pack.size();
+        }
+        ids.removeAll(dropped);
+
+        if (!PACK_DIR.exists()) {
+            mkdir(PACK_DIR);
+        }
+        PackFile.Writer writer = new PackFile.Writer(PACK_DIR);
+        File newPackFile;
+        try {
+            Map<String, Integer> depths = new HashMap<>();
+            // Versions of each file in the order they appear in history.
+            Map<String, Set<String>> fileVersions = new LinkedHashMap<>();
+            for (Commit commit : commits) {
+                List<String> parents = commit.getParents();
+                String baseId = parents.isEmpty() ? null : parents.get(0);
+                addToPack(writer, depths, commit.getId(), baseId, ids);
+                for (Map.Entry<String, String> entry : commit.getTracked().entrySet()) {
+                    fileVersions.computeIfAbsent(entry.getKey(), k -> new LinkedHashSet<>()).add(entry.getValue());
+                }
+            }
+            for (Set<String> versions : fileVersions.values()) {
+                String baseId = null;
+                for (String blobId : versions) {
+                    addToPack(writer, depths, blobId, baseId, ids);
+                    baseId = blobId;
+                }
+            }
+            for (String id : ids) {
+                addToPack(writer, depths, id, null, ids);
+            }
+            newPackFile = writer.finish(PACK_DIR);
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+
+        for (String id : looseIds) {
+            deleteLoose(id);
+        }
+        invalidate();
+        for (PackFile pack : oldPacks) {
+            // A pack of the same objects has the same name, and was replaced.
+            if (!pack.getPackFile().equals(newPackFile)) {
+                rm(pack.getPackFile());
+                rm(PackFile.getIndexFile(pack.getPackFile()));
+            }
+        }
+
+        long sizeAfter = newPackFile.length() + PackFile.getIndexFile(newPackFile).length();
+        return new RepackResult(writer.getCount(), writer.getDeltaCount(), sizeBefore, sizeAfter);
+    }
+
+    /**
+     * Delete the loose object, and its directory if left empty. Packed copies are
+     * only dropped by a repack.
+     *
+     * @param id SHA1 id
+     */
+    public static void deleteLoose(String id) {
+        File file = getObjectFile(id);
+        if (!file.exists()) {
+            return;
+        }
+        rm(file);
+        String[] rest = file.getParentFile().list();
+        if (rest != null && rest.length == 0) {
+            rm(file.getParentFile());
+        }
+    }
+
+    /**
+     * Add the object to the pack, as a delta against the base if it pays off.
+     * Skip objects that are already in the pack or not in the store.
+     */
+    private static void addToPack(PackFile.Writer writer, Map<String, Integer> depths,
+                                  String id, String baseId, Set<String> ids) {
+        if (writer.contains(id) || !ids.contains(id)) {
+            return;
+        }
+        byte[] content = read(id);
+        if (baseId != null && writer.contains(baseId)) {
+            int depth = depths.getOrDefault(baseId, 0) + 1;
+            if (depth <= MAX_DELTA_DEPTH) {
+                byte[] delta = Delta.create(read(baseId), content);
+                if (delta.length < content.length / 2) {
+                    writer.addDelta(id, baseId, delta);
+                    depths.put(id, depth);
+                    return;
+                }
+            }
+        }
+        writer.addFull(id, content);
+    }
+
+    /**
+     * Deserialize the object from bytes.
+     */
+    private static <T extends Serializable> T deserialize(byte[] bytes, Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /**
+     * Type and payload size of an object.
+     */
+    public static class Header {
+
+        /**
+         * Type of the object, {@link #BLOB}, {@link #TREE} or {@link #COMMIT}.
+         */
+        public final String type;
+
+        /**
+         * Size of the payload in bytes.
+         */
+        public final long size;
+
+        Header(String type, long size) {
+            this.type = type;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Summary of a repack.
+     */
+    public static class RepackResult {
+
+        /**
+         * Number of objects in the new pack.
+         */
+        public final int objects;
+
+        /**
+         * Number of objects stored as deltas.
+         */
+        public final int deltas;
+
+        /**
+         * Size of the objects on disk before the repack in bytes.
+         */
+        public final long sizeBefore;
+
+        /**
+         * Size of the new pack on disk in bytes.
+         */
+        public final long sizeAfter;
+
+        RepackResult(int objects, int deltas, long sizeBefore, long sizeAfter) {
+            this.objects = objects;
+            this.deltas = deltas;
+            this.sizeBefore = sizeBefore;
+            this.sizeAfter = sizeAfter;
+        }
+    }
+}
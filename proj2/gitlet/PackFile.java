@@ -0,0 +1,560 @@
+package gitlet;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * A pack of objects, made of a pack file holding the compressed objects
+ * and an index file mapping each SHA1 id to its offset in the pack.
+ *
+ * <pre>
+ * pack-&lt;sha1&gt;.pack
+ *   "GPAK" version:int count:int
+ *   entry*             type:byte [baseOffset:long] length:int compressedLength:int deflated-data
+ *   sha1 of the above
+ *
+ * pack-&lt;sha1&gt;.idx
+ *   "GIDX" version:int count:int
+ *   fanout:int[256]    number of ids whose first byte is &lt;= i
+ *   ids:byte[20][count] sorted
+ *   offsets:long[count]
+ *   sha1 of the pack
+ * </pre>
+ *
+ * A delta entry stores a {@link Delta} against the entry at baseOffset in the same pack.
+ * The index is memory mapped, but entries are read from the pack at their offset,
+ * so that a pack may be larger than a single mapping.
+ *
+ * @author Jeffrey
+ */
+public class PackFile {
+
+    /**
+     * Entry holding the whole object.
+     */
+    private static final byte TYPE_FULL = 1;
+
+    /**
+     * Entry holding a delta against another entry.
+     */
+    private static final byte TYPE_DELTA = 2;
+
+    private static final byte[] PACK_MAGIC = {'G', 'P', 'A', 'K'};
+    private static final byte[] INDEX_MAGIC = {'G', 'I', 'D', 'X'};
+    private static final int VERSION = 1;
+
+    /**
+     * Length of a raw SHA1 id in bytes.
+     */
+    private static final int ID_BYTES = UID_LENGTH / 2;
+
+    /**
+     * Size of the pack header: magic, version and count.
+     */
+    private static final int PACK_HEADER_SIZE = 12;
+
+    /**
+     * Size of the index header: magic, version and count.
+     */
+    private static final int INDEX_HEADER_SIZE = 12;
+
+    /**
+     * Size of the fanout table.
+     */
+    private static final int FANOUT_SIZE = 256 * 4;
+
+    /**
+     * Max size of an entry header: type, base offset, length and compressed length.
+     * Reading it never goes past the end of the pack, as the checksum follows the
+     * last entry.
+     */
+    private static final int MAX_ENTRY_HEADER_SIZE = 1 + 8 + 4 + 4;
+
+    /**
+     * The pack file.
+     */
+    private final File packFile;
+
+    /**
+     * The index file.
+     */
+    private final File indexFile;
+
+    /**
+     * Number of objects in this pack.
+     */
+    private final int count;
+
+    /**
+     * Memory mapped index.
+     */
+    private final MappedByteBuffer index;
+
+    /**
+     * Channel of the pack, read at absolute positions so it can be shared by threads.
+     */
+    private final FileChannel pack;
+
+    /**
+     * Open the pack with its index.
+     *
+     * @param packFile The .pack file, the .idx file is expected next to it
+     */
+    public PackFile(File packFile) {
+        this.packFile = packFile;
+        this.indexFile = getIndexFile(packFile);
+        this.index = map(indexFile);
+        try {
+            this.pack = FileChannel.open(packFile.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        byte[] magic = new byte[INDEX_MAGIC.length];
+        index.get(0, magic);
+        if (!Arrays.equals(magic, INDEX_MAGIC) || index.getInt(4) != VERSION) {
+            throw new IllegalArgumentException(String.format("pack: %s: Bad index file", indexFile.getPath()));
+        }
+        this.count = index.getInt(8);
+    }
+
+    /**
+     * Close the pack. The pack must not be read after.
+     */
+    public void close() {
+        try {
+            pack.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Get the .idx file paired with the .pack file.
+     *
+     * @param packFile File instance
+     * @return File instance
+     */
+    public static File getIndexFile(File packFile) {
+        String name = packFile.getName();
+        return join(packFile.getParentFile(), name.substring(0, name.length() - ".pack".length()) + ".idx");
+    }
+
+    /**
+     * Get the .pack file.
+     *
+     * @return File instance
+     */
+    public File getPackFile() {
+        return packFile;
+    }
+
+    /**
+     * Get the total size of the .pack and .idx files in bytes.
+     *
+     * @return Size in bytes
+     */
+    public long size() {
+        return packFile.length() + indexFile.length();
+    }
+
+    /**
+     * Get the number of objects in this pack.
+     *
+     * @return Number of objects
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Tells if the object is in this pack.
+     *
+     * @param id SHA1 id
+     * @return true if exists
+     */
+    public boolean contains(String id) {
+        return find(toBytes(id)) >= 0;
+    }
+
+    /**
+     * Read the object with the SHA1 id.
+     *
+     * @param id SHA1 id
+     * @return Object content, null if not in this pack
+     */
+    public byte[] read(String id) {
+        int position = find(toBytes(id));
+        if (position < 0) {
+            return null;
+        }
+        return readEntry(getOffset(position));
+    }
+
+    /**
+     * Get all SHA1 ids in this pack in sorted order.
+     *
+     * @return List of SHA1 ids
+     */
+    public List<String> ids() {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(getId(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Get the SHA1 ids in this pack that start with the prefix.
+     *
+     * @param prefix Abbreviate SHA1 id
+     * @return List of SHA1 ids
+     */
+    public List<String> idsWithPrefix(String prefix) {
+        List<String> ids = new ArrayList<>();
+        int first = Integer.parseInt(prefix.substring(0, 2), 16);
+        int low = first == 0 ? 0 : getFanout(first - 1);
+        int high = getFanout(first);
+        for (int i = low; i < high; i++) {
+            String id = getId(i);
+            if (id.startsWith(prefix)) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Binary search the id in the index.
+     *
+     * @return Position in the sorted ids, or -1 if not found
+     */
+    private int find(byte[] id) {
+        int first = id[0] & 0xff;
+        int low = first == 0 ? 0 : getFanout(first - 1);
+        int high = getFanout(first) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(mid, id);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private int getFanout(int i) {
+        return index.getInt(INDEX_HEADER_SIZE + i * 4);
+    }
+
+    private int compareId(int position, byte[] id) {
+        int base = INDEX_HEADER_SIZE + FANOUT_SIZE + position * ID_BYTES;
+        for (int i = 0; i < ID_BYTES; i++) {
+            int cmp = Integer.compare(index.get(base + i) & 0xff, id[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private String getId(int position) {
+        byte[] id = new byte[ID_BYTES];
+        index.get(INDEX_HEADER_SIZE + FANOUT_SIZE + position * ID_BYTES, id);
+        return toHex(id);
+    }
+
+    private long getOffset(int position) {
+        return index.getLong(INDEX_HEADER_SIZE + FANOUT_SIZE + count * ID_BYTES + position * 8);
+    }
+
+    /**
+     * Read and inflate the entry at the offset, resolving deltas.
+     */
+    private byte[] readEntry(long offset) {
+        ByteBuffer header = readAt(offset, MAX_ENTRY_HEADER_SIZE);
+        byte type = header.get();
+        long baseOffset = -1;
+        if (type == TYPE_DELTA) {
+            baseOffset = header.getLong();
+        }
+        int length = header.getInt();
+        int compressedLength = header.getInt();
+        byte[] compressed = readAt(offset + header.position(), compressedLength).array();
+        byte[] data = inflate(compressed, length);
+        if (type == TYPE_DELTA) {
+            return Delta.apply(readEntry(baseOffset), data);
+        }
+        return data;
+    }
+
+    /**
+     * Read bytes of the pack at the position.
+     *
+     * @return ByteBuffer instance holding the bytes, at position 0
+     */
+    private ByteBuffer readAt(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while (buffer.hasRemaining()) {
+                if (pack.read(buffer, position + buffer.position()) < 0) {
+                    throw new IllegalArgumentException(String.format("pack: %s: Truncated file", packFile.getPath()));
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Map the whole file read-only into memory.
+     */
+    private static MappedByteBuffer map(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] compressed, int length) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        byte[] data = new byte[length];
+        try {
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                n += inflater.inflate(data, n, length - n);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Writes a new pack and its index.
+     * Entries must be added after the entries they are delta against.
+     */
+    public static class Writer {
+
+        /**
+         * Temporary pack file being written.
+         */
+        private final File tempFile;
+
+        private final DataOutputStream out;
+
+        private final MessageDigest digest;
+
+        /**
+         * Offsets of the written entries with SHA1 id as key.
+         */
+        private final Map<String, Long> offsets = new HashMap<>();
+
+        /**
+         * Current offset in the pack.
+         */
+        private long offset;
+
+        /**
+         * Number of delta entries.
+         */
+        private int deltaCount;
+
+        /**
+         * Start a new pack in the directory.
+         *
+         * @param dir Pack directory
+         */
+        public Writer(File dir) {
+            try {
+                tempFile = File.createTempFile("tmp-", ".pack", dir);
+                digest = MessageDigest.getInstance("SHA-1");
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                // The count is not known yet and is fixed up in finish().
+                out.write(PACK_MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0);
+                offset = PACK_HEADER_SIZE;
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        /**
+         * Tells if the object is written to this pack.
+         *
+         * @param id SHA1 id
+         * @return true if written
+         */
+        public boolean contains(String id) {
+            return offsets.containsKey(id);
+        }
+
+        /**
+         * Get the number of objects written.
+         *
+         * @return Number of objects
+         */
+        public int getCount() {
+            return offsets.size();
+        }
+
+        /**
+         * Get the number of delta entries written.
+         *
+         * @return Number of deltas
+         */
+        public int getDeltaCount() {
+            return deltaCount;
+        }
+
+        /**
+         * Add the whole object.
+         *
+         * @param id      SHA1 id
+         * @param content Object content
+         */
+        public void addFull(String id, byte[] content) {
+            writeEntry(id, TYPE_FULL, -1, content);
+        }
+
+        /**
+         * Add the object as a delta against an object already written.
+         *
+         * @param id     SHA1 id
+         * @param baseId SHA1 id of the base object
+         * @param delta  Delta from the base to the object
+         */
+        public void addDelta(String id, String baseId, byte[] delta) {
+            writeEntry(id, TYPE_DELTA, offsets.get(baseId), delta);
+            deltaCount++;
+        }
+
+        private void writeEntry(String id, byte type, long baseOffset, byte[] data) {
+            byte[] compressed = deflate(data);
+            try {
+                offsets.put(id, offset);
+                out.writeByte(type);
+                offset += 1;
+                if (type == TYPE_DELTA) {
+                    out.writeLong(baseOffset);
+                    offset += 8;
+                }
+                out.writeInt(data.length);
+                out.writeInt(compressed.length);
+                out.write(compressed);
+                offset += 8 + compressed.length;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        /**
+         * Finish the pack, write the index and move both into the directory.
+         *
+         * @param dir Pack directory
+         * @return The new .pack file
+         */
+        public File finish(File dir) {
+            try {
+                out.close();
+                try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+                    raf.seek(8);
+                    raf.writeInt(offsets.size());
+                    raf.seek(0);
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while ((n = raf.read(buffer)) > 0) {
+                        digest.update(buffer, 0, n);
+                    }
+                    byte[] checksum = digest.digest();
+                    raf.write(checksum);
+
+                    String name = "pack-" + toHex(checksum);
+                    File packFile = join(dir, name + ".pack");
+                    writeIndex(join(dir, name + ".idx"), checksum);
+                    if (!tempFile.renameTo(packFile)) {
+                        throw new IllegalArgumentException(String.format("pack: %s: Failed to rename", tempFile.getPath()));
+                    }
+                    return packFile;
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        /**
+         * Discard the pack being written.
+         */
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+                // The file is deleted anyway.
+            }
+            rm(tempFile);
+        }
+
+        private void writeIndex(File indexFile, byte[] checksum) throws IOException {
+            List<String> ids = new ArrayList<>(offsets.keySet());
+            Collections.sort(ids);
+            int[] fanout = new int[256];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)]++;
+            }
+            for (int i = 1; i < fanout.length; i++) {
+                fanout[i] += fanout[i - 1];
+            }
+            try (DataOutputStream indexOut = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+                indexOut.write(INDEX_MAGIC);
+                indexOut.writeInt(VERSION);
+                indexOut.writeInt(ids.size());
+                for (int n : fanout) {
+                    indexOut.writeInt(n);
+                }
+                for (String id : ids) {
+                    indexOut.write(toBytes(id));
+                }
+                for (String id : ids) {
+                    indexOut.writeLong(offsets.get(id));
+                }
+                indexOut.write(checksum);
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * Another repository on the local filesystem, known by a name. Its refs and objects
+ * are read directly from its .gitlet directory, loose or packed, and the objects
+ * sent to it are written as a single new pack in its pack directory, with nothing
+ * else touched but the branch head pushed to.
+ *
+ * <pre>
+ * remotes/&lt;name&gt;    path of the .gitlet directory of the remote
+ * </pre>
+ *
+ * Since commits and their trees are content addressed, a repository that has a
+ * commit has its whole history, and a repository that has a tree has all the
+ * trees and blobs under it. So the commits to send are found by walking back
+ * from the wanted commit until the commits the other side has, and the trees and
+ * blobs by walking down from their root trees until the trees the other side has.
+ * The chunks of a chunked blob are sent with it, except those the other side has.
+ *
+ * @author Jeffrey
+ */
+public class Remote {
+
+    /**
+     * The remotes directory.
+     */
+    public static final File REMOTES_DIR = join(Repository.GITLET_DIR, "remotes");
+
+    /**
+     * The .gitlet directory of the remote.
+     */
+    private final File gitletDir;
+
+    /**
+     * Packs of the remote. Loaded on first access.
+     */
+    private List<PackFile> packs;
+
+    private Remote(File gitletDir) {
+        this.gitletDir = gitletDir;
+    }
+
+    /**
+     * Save a new remote. Exit with message if a remote with the name exists.
+     *
+     * @param name Name of the remote
+     * @param path Path of the .gitlet directory of the remote, with '/' as separator
+     */
+    public static void add(String name, String path) {
+        File remoteFile = getRemoteFile(name);
+        if (remoteFile.exists()) {
+            exit("A remote with that name already exists.");
+        }
+        if (!REMOTES_DIR.exists()) {
+            mkdir(REMOTES_DIR);
+        }
+        writeContents(remoteFile, path.replace('/', File.separatorChar));
+    }
+
+    /**
+     * Delete the remote. Exit with message if there is no remote with the name.
+     *
+     * @param name Name of the remote
+     */
+    public static void remove(String name) {
+        File remoteFile = getRemoteFile(name);
+        if (!remoteFile.exists()) {
+            exit("A remote with that name does not exist.");
+        }
+        rm(remoteFile);
+    }
+
+    /**
+     * Get the remote with the name. Exit with message if there is none, if its
+     * directory does not exist, or if one of the repositories still uses blob ids
+     * that depend on the path, which differ between repositories.
+     *
+     * @param name Name of the remote
+     * @return Remote instance
+     */
+    public static Remote get(String name) {
+        File remoteFile = getRemoteFile(name);
+        if (!remoteFile.exists()) {
+            exit("A remote with that name does not exist.");
+        }
+        File gitletDir = new File(readContentsAsString(remoteFile));
+        if (!gitletDir.isAbsolute()) {
+            gitletDir = join(Repository.CWD, gitletDir.getPath());
+        }
+        if (!gitletDir.isDirectory()) {
+            exit("Remote directory not found.");
+        }
+        Remote remote = new Remote(gitletDir);
+        if (Repository.getFormatVersion() < Repository.CONTENT_ID_FORMAT_VERSION
+                || remote.getFormatVersion() < Repository.CONTENT_ID_FORMAT_VERSION) {
+            exit("Please run migrate in both repositories first.");
+        }
+        return remote;
+    }
+
+    private static File getRemoteFile(String name) {
+        if (name.isEmpty() || name.contains("/") || name.contains(File.separator) || name.startsWith(".")) {
+            exit("Invalid remote name.");
+        }
+        return join(REMOTES_DIR, name);
+    }
+
+    private int getFormatVersion() {
+        File formatFile = join(gitletDir, "format");
+        return formatFile.exists() ? Integer.parseInt(readContentsAsString(formatFile).trim()) : 0;
+    }
+
+    /**
+     * Get the head commit id of a branch of the remote.
+     *
+     * @param branchName Name of the branch
+     * @return Commit SHA1 id, or null if there is no such branch
+     */
+    public String getBranchHead(String branchName) {
+        File branchHeadFile = join(gitletDir, "refs", "heads", branchName);
+        return branchHeadFile.isFile() ? readContentsAsString(branchHeadFile) : null;
+    }
+
+    /**
+     * Get the head commit ids of all branches of the remote.
+     *
+     * @return Set of commit SHA1 ids
+     */
+    public Set<String> getBranchHeads() {
+        Set<String> branchHeads = new LinkedHashSet<>();
+        Deque<File> dirs = new ArrayDeque<>();
+        dirs.push(join(gitletDir, "refs", "heads"));
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.push(file);
+                } else {
+                    branchHeads.add(readContentsAsString(file));
+                }
+            }
+        }
+        return branchHeads;
+    }
+
+    /**
+     * Point a branch of the remote to the commit, creating the branch if needed.
+     *
+     * @param branchName Name of the branch
+     * @param commitId   Commit SHA1 id
+     */
+    public void setBranchHead(String branchName, String commitId) {
+        File branchHeadFile = join(gitletDir, "refs", "heads", branchName);
+        mkdirs(branchHeadFile.getParentFile());
+        writeContentsAtomically(branchHeadFile, commitId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Tells if the remote has the object, either loose or packed.
+     *
+     * @param id SHA1 id
+     * @return true if exists
+     */
+    public boolean contains(String id) {
+        if (getLooseFile(id).exists()) {
+            return true;
+        }
+        for (PackFile pack : getPacks()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Read the content of an object of the remote.
+     *
+     * @param id SHA1 id
+     * @return Object content
+     */
+    public byte[] read(String id) {
+        File file = getLooseFile(id);
+        if (file.exists()) {
+            try (InputStream in = ObjectStore.openLoose(file)) {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+        for (PackFile pack : getPacks()) {
+            byte[] content = pack.read(id);
+            if (content != null) {
+                return content;
+            }
+        }
+        throw new IllegalArgumentException(String.format("remote: %s: Object %s not found", gitletDir.getPath(), id));
+    }
+
+    /**
+     * Get the pack directory of the remote.
+     *
+     * @return File instance
+     */
+    public File getPackDir() {
+        return join(gitletDir, "objects", "pack");
+    }
+
+    private File getLooseFile(String id) {
+        return join(gitletDir, "objects", getObjectDirName(id), getObjectFileName(id));
+    }
+
+    /**
+     * Close the packs of the remote that were opened.
+     */
+    public void close() {
+        if (packs != null) {
+            for (PackFile pack : packs) {
+                pack.close();
+            }
+            packs = null;
+        }
+    }
+
+    private List<PackFile> getPacks() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] packFiles = getPackDir().listFiles((dir, name) -> name.endsWith(".pack"));
+            if (packFiles != null) {
+                for (File packFile : packFiles) {
+                    packs.add(new PackFile(packFile));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Get the commits of the remote reachable from the commit that the other side
+     * does not have, reading only these commits.
+     *
+     * @param commitId Commit SHA1 id of the remote
+     * @param isKnown  Function that tells if the other side has a commit
+     * @return Commit SHA1 ids, parents before children
+     */
+    public List<String> getMissingCommits(String commitId, Predicate<String> isKnown) {
+        List<String> commitIds = new ArrayList<>();
+        Set<String> visited = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        Deque<Iterator<String>> parentIterators = new ArrayDeque<>();
+        if (isKnown.test(commitId)) {
+            return commitIds;
+        }
+        visited.add(commitId);
+        stack.push(commitId);
+        parentIterators.push(readCommit(commitId).getParents().iterator());
+        while (!stack.isEmpty()) {
+            Iterator<String> parents = parentIterators.peek();
+            if (parents.hasNext()) {
+                String parentId = parents.next();
+                if (visited.add(parentId) && !isKnown.test(parentId)) {
+                    stack.push(parentId);
+                    parentIterators.push(readCommit(parentId).getParents().iterator());
+                }
+            } else {
+                commitIds.add(stack.pop());
+                parentIterators.pop();
+            }
+        }
+        return commitIds;
+    }
+
+    private Commit readCommit(String id) {
+        return Commit.decode(id, ObjectStore.getPayload(read(id)));
+    }
+
+    /**
+     * Write the commits, with the trees and blobs they need that the destination
+     * does not have, as a single new pack in the pack directory of the destination.
+     *
+     * @param commitIds   Commit SHA1 ids to send, parents before children
+     * @param source      Function that reads the content of an object of the source
+     * @param destination Function that tells if the destination has an object
+     * @param packDir     Pack directory of the destination
+     * @return Number of objects sent, no pack is written if there are none
+     */
+    public static int sendPack(List<String> commitIds, Function<String, byte[]> source,
+                               Predicate<String> destination, File packDir) {
+        if (commitIds.isEmpty()) {
+            return 0;
+        }
+        mkdirs(packDir);
+        PackFile.Writer writer = new PackFile.Writer(packDir);
+        try {
+            for (String commitId : commitIds) {
+                byte[] content = source.apply(commitId);
+                writer.addFull(commitId, content);
+                Commit commit = Commit.decode(commitId, ObjectStore.getPayload(content));
+                if (commit.getTreeId() == null) {
+                    throw new IllegalArgumentException(String.format("remote: %s: Commit without tree", commitId));
+                }
+                addTree(writer, commit.getTreeId(), source, destination);
+            }
+            File packFile = writer.finish(packDir);
+            debug("send-pack: %d commits, %d objects, %d bytes to %s",
+                    commitIds.size(), writer.getCount(), packFile.length(), packDir.getPath());
+        } catch (RuntimeException e) {
+            writer.abort();
+            throw e;
+        }
+        return writer.getCount();
+    }
+
+    /**
+     * Add the tree, its subtrees and their blobs to the pack, except those in the
+     * pack already or in the destination.
+     */
+    private static void addTree(PackFile.Writer writer, String treeId, Function<String, byte[]> source,
+                                Predicate<String> destination) {
+        if (writer.contains(treeId) || destination.test(treeId)) {
+            return;
+        }
+        byte[] content = source.apply(treeId);
+        writer.addFull(treeId, content);
+        Tree tree = Tree.decode(treeId, ObjectStore.getPayload(content));
+        for (String subtreeId : tree.getEntryIds(true)) {
+            addTree(writer, subtreeId, source, destination);
+        }
+        for (String blobId : tree.getEntryIds(false)) {
+            if (!writer.contains(blobId) && !destination.test(blobId)) {
+                byte[] blobContent = source.apply(blobId);
+                writer.addFull(blobId, blobContent);
+                for (String chunkId : Chunker.getChunkIdsOf(blobContent)) {
+                    if (!writer.contains(chunkId) && !destination.test(chunkId)) {
+                        writer.addFull(chunkId, source.apply(chunkId));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.Function;
+
+import static gitlet.MyUtils.*;
+
+/**
+ * Pairs files that are gone with new files whose content is the same or similar,
+ * as renames, and new files with files that are still there, as copies.
+ * <p>
+ * Files with the same content id are paired first. The others are compared by
+ * their MinHash sketch: each line, numbered by how many times it appeared before so
+ * that repeated lines count, is a shingle, and the sketch keeps the smallest hash of
+ * the shingles under each of {@link #SKETCH_SIZE} hash functions. The share of equal
+ * minimums of two sketches estimates the Jaccard index J of their sets of lines,
+ * from which the similarity, the share of the lines of the larger file found in the
+ * other, is J (a + b) / (1 + J) / max(a, b) for files of a and b lines.
+ * Rather than comparing every new file with every old one, the sketches are cut in
+ * bands of {@link #BAND_SIZE} minimums, and only files that share a whole band are
+ * compared, which pairs files of equal size and similarity 50% (J = 1/3) with
+ * probability 0.98, and files with J of 0.1 or less with probability under 0.3.
+ * The pairs of at least {@link #MIN_SIMILARITY} percent are then taken best first.
+ *
+ * @author Jeffrey
+ */
+public class RenameDetector {
+
+    /**
+     * Minimum estimated similarity of a rename or a copy, in percent.
+     */
+    public static final int MIN_SIMILARITY = 50;
+
+    /**
+     * Number of hash functions of a sketch.
+     */
+    private static final int SKETCH_SIZE = 64;
+
+    /**
+     * Number of minimums of a sketch in a band.
+     */
+    private static final int BAND_SIZE = 2;
+
+    /**
+     * Seeds of the hash functions.
+     */
+    private static final long[] SEEDS = new long[SKETCH_SIZE];
+
+    static {
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < SKETCH_SIZE; i++) {
+            SEEDS[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * A new file found to come from an old one.
+     */
+    public static class Rename {
+
+        /**
+         * Path of the old file.
+         */
+        public final String source;
+
+        /**
+         * Path of the new file.
+         */
+        public final String target;
+
+        /**
+         * Estimated similarity, in percent.
+         */
+        public final int similarity;
+
+        /**
+         * Whether the old file is still there, or was already renamed to another file.
+         */
+        public final boolean isCopy;
+
+        Rename(String source, String target, int similarity, boolean isCopy) {
+            this.source = source;
+            this.target = target;
+            this.similarity = similarity;
+            this.isCopy = isCopy;
+        }
+    }
+
+    /**
+     * Find the renames and the copies. Each new file comes from one old file at most.
+     *
+     * @param deleted Map with path as key and content id as value of the files that are gone
+     * @param kept    Map with path as key and content id as value of the files that may have been copied
+     * @param added   Map with path as key and content id as value of the new files
+     * @param readOld Function that reads the content of a deleted or kept file by its path
+     * @param readNew Function that reads the content of a new file by its path
+     * @return Renames and copies, ordered by new file path
+     */
+    public static List<Rename> detect(Map<String, String> deleted, Map<String, String> kept,
+                                      Map<String, String> added, Function<String, byte[]> readOld,
+                                      Function<String, byte[]> readNew) {
+        List<Rename> renames = new ArrayList<>();
+        if (added.isEmpty() || deleted.isEmpty() && kept.isEmpty()) {
+            return renames;
+        }
+        long startTime = System.nanoTime();
+        List<String> sources = new ArrayList<>(new TreeSet<>(deleted.keySet()));
+        sources.addAll(new TreeSet<>(kept.keySet()));
+        Map<String, String> sourceIds = new HashMap<>(kept);
+        sourceIds.putAll(deleted);
+        Set<String> usedSources = new HashSet<>();
+
+        // Same content.
+        Map<String, List<String>> sourcesById = new HashMap<>();
+        for (String source : sources) {
+            sourcesById.computeIfAbsent(sourceIds.get(source), id -> new ArrayList<>()).add(source);
+        }
+        List<String> targets = new ArrayList<>();
+        for (String target : new TreeSet<>(added.keySet())) {
+            List<String> candidates = sourcesById.get(added.get(target));
+            if (candidates == null) {
+                targets.add(target);
+                continue;
+            }
+            String source = candidates.get(0);
+            for (String candidate : candidates) {
+                if (deleted.containsKey(candidate) && !usedSources.contains(candidate)) {
+                    source = candidate;
+                    break;
+                }
+            }
+            renames.add(new Rename(source, target, 100, !deleted.containsKey(source) || !usedSources.add(source)));
+        }
+
+        // Similar content.
+        if (!targets.isEmpty()) {
+            addSimilar(renames, sources, targets, deleted, usedSources, readOld, readNew);
+        }
+        renames.sort(Comparator.comparing(rename -> rename.target));
+        debug("renames: %d old, %d new files, %d found, %.3f s", sources.size(), added.size(), renames.size(),
+                (System.nanoTime() - startTime) / 1e9);
+        return renames;
+    }
+
+    /**
+     * Add the pairs of similar content among the sources and targets without one of same content.
+     */
+    private static void addSimilar(List<Rename> renames, List<String> sources, List<String> targets,
+                                   Map<String, String> deleted, Set<String> usedSources,
+                                   Function<String, byte[]> readOld, Function<String, byte[]> readNew) {
+        List<Sketch> sourceSketches = getSketches(sources, readOld);
+        List<Sketch> targetSketches = getSketches(targets, readNew);
+
+        Map<Long, List<Integer>> sourcesByBand = new HashMap<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Sketch sketch = sourceSketches.get(i);
+            if (sketch != null) {
+                for (int band = 0; band < SKETCH_SIZE / BAND_SIZE; band++) {
+                    sourcesByBand.computeIfAbsent(sketch.getBandKey(band), key -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        List<long[]> pairs = new ArrayList<>();
+        Set<Integer> candidates = new HashSet<>();
+        for (int j = 0; j < targets.size(); j++) {
+            Sketch targetSketch = targetSketches.get(j);
+            if (targetSketch == null) {
+                continue;
+            }
+            candidates.clear();
+            for (int band = 0; band < SKETCH_SIZE / BAND_SIZE; band++) {
+                List<Integer> bandSources = sourcesByBand.get(targetSketch.getBandKey(band));
+                if (bandSources != null) {
+                    candidates.addAll(bandSources);
+                }
+            }
+            for (int i : candidates) {
+                int similarity = sourceSketches.get(i).getSimilarity(targetSketch);
+                if (similarity >= MIN_SIMILARITY) {
+                    pairs.add(new long[]{similarity, i, j});
+                }
+            }
+        }
+
+        // Best pairs first, and for equal similarity, files of the same name first.
+        pairs.sort((x, y) -> {
+            if (x[0] != y[0]) {
+                return Long.compare(y[0], x[0]);
+            }
+            boolean isSameNameX = isSameName(sources.get((int) x[1]), targets.get((int) x[2]));
+            boolean isSameNameY = isSameName(sources.get((int) y[1]), targets.get((int) y[2]));
+            if (isSameNameX != isSameNameY) {
+                return isSameNameX ? -1 : 1;
+            }
+            return x[1] != y[1] ? Long.compare(x[1], y[1]) : Long.compare(x[2], y[2]);
+        });
+        Set<Integer> usedTargets = new HashSet<>();
+        for (long[] pair : pairs) {
+            String source = sources.get((int) pair[1]);
+            if (!usedTargets.add((int) pair[2])) {
+                continue;
+            }
+            renames.add(new Rename(source, targets.get((int) pair[2]), (int) pair[0],
+                    !deleted.containsKey(source) || !usedSources.add(source)));
+        }
+    }
+
+    private static boolean isSameName(String pathA, String pathB) {
+        return new File(pathA).getName().equals(new File(pathB).getName());
+    }
+
+    /**
+     * Get the sketches of the files, in parallel.
+     *
+     * @return Sketches in the order of the paths, null for an empty file
+     */
+    private static List<Sketch> getSketches(List<String> paths, Function<String, byte[]> read) {
+        List<File> files = new ArrayList<>(paths.size());
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        return WorktreeScanner.scan(files, file -> Sketch.of(read.apply(file.getPath())));
+    }
+
+    /**
+     * MinHash sketch of the lines of a content.
+     */
+    private static class Sketch {
+
+        private final long[] minimums;
+
+        /**
+         * Number of lines.
+         */
+        private final int size;
+
+        private Sketch(long[] minimums, int size) {
+            this.minimums = minimums;
+            this.size = size;
+        }
+
+        /**
+         * Get the sketch of the content.
+         *
+         * @return Sketch, or null if there are no lines
+         */
+        static Sketch of(byte[] content) {
+            if (content.length == 0) {
+                return null;
+            }
+            long[] minimums = new long[SKETCH_SIZE];
+            Arrays.fill(minimums, Long.MAX_VALUE);
+            Map<Long, Integer> counts = new HashMap<>();
+            int size = 0;
+            int start = 0;
+            while (start < content.length) {
+                int end = start;
+                long hash = 0xcbf29ce484222325L;
+                while (end < content.length && content[end] != '\n') {
+                    hash = (hash ^ content[end++]) * 0x100000001b3L;
+                }
+                end = Math.min(end + 1, content.length);
+                int count = counts.merge(hash, 1, Integer::sum);
+                long shingle = hash + count * 0x9e3779b97f4a7c15L;
+                for (int i = 0; i < SKETCH_SIZE; i++) {
+                    long value = mix(shingle ^ SEEDS[i]);
+                    if (value < minimums[i]) {
+                        minimums[i] = value;
+                    }
+                }
+                start = end;
+                size++;
+            }
+            return new Sketch(minimums, size);
+        }
+
+        /**
+         * Finalizer of SplitMix64, a bijection that mixes all bits.
+         */
+        private static long mix(long x) {
+            x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+            return x ^ (x >>> 31);
+        }
+
+        long getBandKey(int band) {
+            long key = band;
+            for (int i = band * BAND_SIZE; i < (band + 1) * BAND_SIZE; i++) {
+                key = mix(key ^ minimums[i]);
+            }
+            return key;
+        }
+
+        /**
+         * Estimate the similarity with the other sketch, in percent. Contents whose
+         * numbers of lines differ more than {@link #MIN_SIMILARITY} allows are not compared.
+         */
+        int getSimilarity(Sketch other) {
+            int maxSize = Math.max(size, other.size);
+            if ((long) Math.min(size, other.size) * 100 < (long) maxSize * MIN_SIMILARITY) {
+                return 0;
+            }
+            int equal = 0;
+            for (int i = 0; i < SKETCH_SIZE; i++) {
+                if (minimums[i] == other.minimums[i]) {
+                    equal++;
+                }
+            }
+            double jaccard = (double) equal / SKETCH_SIZE;
+            double common = jaccard * (size + other.size) / (1 + jaccard);
+            return (int) Math.min(100, common * 100 / maxSize);
+        }
+    }
+}
@@ -1,9 +1,17 @@
 package gitlet;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import static gitlet.MyUtils.*;
 import static gitlet.Utils.*;
@@ -29,12 +37,12 @@ public class Repository {
     /**
      * The current working directory.
      */
-    private static final File CWD = new File(System.getProperty("user.dir"));
+    public static final File CWD = new File(System.getProperty("user.dir"));
 
     /**
      * The .gitlet directory.
      */
-    private static final File GITLET_DIR = join(CWD, ".gitlet");
+    public static final File GITLET_DIR = join(CWD, ".gitlet");
 
     /**
      * The index file.
@@ -62,9 +70,36 @@ public class Repository {
     private static final File BRANCHES_HEADS_DIR = join(REFS_DIR, "heads");
 
     /**
-     * Files in the current working directory.
+     * The format file, holding the version of the repository format.
+     * Missing in repositories created before it.
      */
-    private static final Lazy<File[]> currentFiles = lazy(() -> CWD.listFiles(File::isFile));
+    private static final File FORMAT = join(GITLET_DIR, "format");
+
+    /**
+     * Version of the repository format from which blob ids only depend on the content.
+     * Older repositories hash the path of the file as well, until migrated.
+     */
+    public static final int CONTENT_ID_FORMAT_VERSION = 1;
+
+    /**
+     * Size of the buffer of long outputs such as logs.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The version read from the format file, or -1 if not read yet.
+     */
+    private static int formatVersion = -1;
+
+    /**
+     * Walker of the working directory, with the patterns of the ignore file.
+     */
+    private final Lazy<WorktreeWalker> worktreeWalker = lazy(WorktreeWalker::load);
+
+    /**
+     * Files in the current working directory and its subdirectories, except ignored ones.
+     */
+    private final Lazy<List<File>> currentFiles = lazy(() -> worktreeWalker.get().walk(CWD));
 
     /**
      * The current branch name.
@@ -94,6 +129,7 @@ public class Repository {
      * <pre>
      * .gitlet
      * |- HEAD
+     * |- format
      * |- objects
      * |- refs
      *     |- heads
@@ -108,9 +144,32 @@ public class Repository {
         mkdir(BRANCHES_HEADS_DIR);
         mkdir(OBJECTS_DIR);
         setCurrentBranch(DEFAULT_BRANCH_NAME);
+        setFormatVersion(CONTENT_ID_FORMAT_VERSION);
         createInitialCommit();
     }
 
+    /**
+     * Get the version of the repository format.
+     *
+     * @return Version, 0 for a repository created before the format file
+     */
+    public static synchronized int getFormatVersion() {
+        if (formatVersion < 0) {
+            formatVersion = FORMAT.exists() ? Integer.parseInt(readContentsAsString(FORMAT).trim()) : 0;
+        }
+        return formatVersion;
+    }
+
+    /**
+     * Write the version of the repository format.
+     *
+     * @param version Version
+     */
+    private static synchronized void setFormatVersion(int version) {
+        writeContents(FORMAT, version + "\n");
+        formatVersion = version;
+    }
+
     /**
      * Set current branch.
      *
@@ -126,6 +185,7 @@ public class Repository {
     private static void createInitialCommit() {
         Commit initialCommit = new Commit();
         initialCommit.save();
+        CommitGraph.write(Collections.singletonList(initialCommit));
         setBranchHeadCommit(DEFAULT_BRANCH_NAME, initialCommit.getId());
     }
 
@@ -157,9 +217,48 @@ public class Repository {
      * @param commitId Commit SHA1 id
      */
     private static void setBranchHeadCommit(File branchHeadFile, String commitId) {
+        mkdirs(branchHeadFile.getParentFile());
         writeContents(branchHeadFile, commitId);
     }
 
+    /**
+     * Get the head ref files of all branches, including those in subdirectories
+     * such as the remote branches fetched, in the order of the branch names.
+     *
+     * @return List of File instances
+     */
+    private static List<File> getBranchHeadFiles() {
+        List<File> branchHeadFiles = new ArrayList<>();
+        Deque<File> dirs = new ArrayDeque<>();
+        dirs.push(BRANCHES_HEADS_DIR);
+        while (!dirs.isEmpty()) {
+            File[] files = dirs.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    dirs.push(file);
+                } else {
+                    branchHeadFiles.add(file);
+                }
+            }
+        }
+        branchHeadFiles.sort(Comparator.comparing(Repository::getBranchName));
+        return branchHeadFiles;
+    }
+
+    /**
+     * Get the name of the branch of the head ref file, with '/' as separator.
+     *
+     * @param branchHeadFile File instance
+     * @return Name of the branch
+     */
+    private static String getBranchName(File branchHeadFile) {
+        return BRANCHES_HEADS_DIR.toPath().relativize(branchHeadFile.toPath()).toString()
+                .replace(File.separatorChar, '/');
+    }
+
     /**
      * Exit if the repository at the current working directory is not initialized.
      */
@@ -170,16 +269,53 @@ public class Repository {
     }
 
     /**
-     * Add file to the staging area.
+     * Add files to the staging area, and write the index once.
+     * A directory adds the files in it and its subdirectories, and a pattern with
+     * glob characters adds the files of the working directory that match it, see
+     * {@link WorktreeWalker#matches(String, String)}. Both skip ignored files.
+     *
+     * @param fileNames Names of the files or directories, or glob patterns
      */
-    public void add(String fileName) {
-        File file = getFileFromCWD(fileName);
-        if (!file.exists()) {
-            exit("File does not exist.");
+    public void add(List<String> fileNames) {
+        Set<File> files = new LinkedHashSet<>();
+        for (String fileName : fileNames) {
+            List<File> matchedFiles = getFilesToAdd(fileName);
+            if (matchedFiles.isEmpty()) {
+                exit("File does not exist.");
+            }
+            files.addAll(matchedFiles);
         }
-        if (stagingArea.get().add(file)) {
+        long startTime = System.nanoTime();
+        if (stagingArea.get().addAll(new ArrayList<>(files)) || stagingArea.get().isStatsChanged()) {
             stagingArea.get().save();
         }
+        debug("add: %d files, %.3f s", files.size(), (System.nanoTime() - startTime) / 1e9);
+    }
+
+    /**
+     * Get the files an operand of add refers to.
+     *
+     * @param fileName Name of a file or a directory, or a glob pattern
+     * @return Files, empty if none
+     */
+    private List<File> getFilesToAdd(String fileName) {
+        File file = getFileFromCWD(fileName);
+        if (file.isFile()) {
+            return Collections.singletonList(file);
+        }
+        if (file.isDirectory()) {
+            return file.equals(CWD) ? currentFiles.get() : worktreeWalker.get().walk(file);
+        }
+        List<File> matchedFiles = new ArrayList<>();
+        if (fileName.matches(".*[*?\\[{].*")) {
+            String glob = fileName.startsWith("./") ? fileName.substring(2) : fileName;
+            for (File currentFile : currentFiles.get()) {
+                if (WorktreeWalker.matches(glob, Tree.getRelativePath(currentFile.getPath()))) {
+                    matchedFiles.add(currentFile);
+                }
+            }
+        }
+        return matchedFiles;
     }
 
     /**
@@ -190,7 +326,21 @@ public class Repository {
      * @return File instance
      */
     private static File getFileFromCWD(String fileName) {
-        return Paths.get(fileName).isAbsolute() ? new File(fileName) : join(CWD, fileName);
+        File file = Paths.get(fileName).isAbsolute() ? new File(fileName) : join(CWD, fileName);
+        return file.toPath().normalize().toFile();
+    }
+
+    /**
+     * Delete a file of the working directory, then the parent directories it leaves empty.
+     *
+     * @param file File in the working directory
+     */
+    public static void deleteWorktreeFile(File file) {
+        rm(file);
+        File dir = file.getParentFile();
+        while (dir != null && !dir.equals(CWD) && dir.getPath().startsWith(CWD.getPath()) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
 
     /**
@@ -234,15 +384,25 @@ public class Repository {
         if (stagingArea.get().isClean()) {
             exit("No changes added to the commit.");
         }
+        Map<String, String> addedFilesMap = new HashMap<>(stagingArea.get().getAdded());
+        Set<String> removedFilePaths = new HashSet<>(stagingArea.get().getRemoved());
         Map<String, String> newTrackedFilesMap = stagingArea.get().commit();
         stagingArea.get().save();
+        // Only the directories of the changed files are written, unless HEAD predates trees.
+        String baseTreeId = HEADCommit.get().getTreeId();
+        String treeId = baseTreeId != null
+                ? Tree.update(baseTreeId, addedFilesMap, removedFilePaths)
+                : Tree.write(newTrackedFilesMap);
         List<String> parents = new ArrayList<>();
         parents.add(HEADCommit.get().getId());
         if (secondParent != null) {
             parents.add(secondParent);
         }
-        Commit newCommit = new Commit(msg, parents, newTrackedFilesMap);
+        Commit newCommit = new Commit(msg, parents, treeId);
         newCommit.save();
+        if (CommitGraph.exists()) {
+            CommitGraph.append(newCommit);
+        }
         setBranchHeadCommit(currentBranch.get(), newCommit.getId());
     }
 
@@ -261,109 +421,229 @@ public class Repository {
     }
 
     /**
-     * print log of the current branch.
+     * Print the logs of the commits from HEAD along first parents, as the walk goes.
+     * With a file name, only the commits that changed the file, or a file in the
+     * directory, against their first parent are printed, and the commits whose
+     * changed-path filter rejects the path are skipped without being read.
+     *
+     * @param skip     Number of commits to skip before printing
+     * @param maxCount Max number of commits to print, or -1 for all
+     * @param fileName Name of the file or the directory, or null for all commits
      */
-    public void log() {
-        StringBuilder logBuilder = new StringBuilder();
-        Commit curCommit = HEADCommit.get();
-        while (true) {
-            logBuilder.append(curCommit.getLog()).append("\n");
-            List<String> parentCommitIds = curCommit.getParents();
-            if (parentCommitIds.isEmpty()) {
-                break;
+    public void log(int skip, int maxCount, String fileName) {
+        File file = fileName == null ? null : getFileFromCWD(fileName);
+        String path = file == null ? null : Tree.getRelativePath(file.getPath());
+        String HEADCommitId = HEADCommit.get().getId();
+        CommitGraph commitGraph = getCommitGraph(Collections.singletonList(HEADCommitId));
+        PrintStream out = openOutput();
+        int visited = 0;
+        int read = 0;
+        int matched = 0;
+        int printed = 0;
+        for (int position = commitGraph.indexOf(HEADCommitId);
+             position != CommitGraph.NONE && (maxCount < 0 || printed < maxCount);
+             position = commitGraph.getFirstParent(position)) {
+            visited++;
+            if (path != null) {
+                if (!commitGraph.mightHaveChanged(position, path)) {
+                    continue;
+                }
+                read++;
+                if (!hasChanged(commitGraph, position, file)) {
+                    continue;
+                }
+                matched++;
             }
-            String firstParentCommitId = parentCommitIds.get(0);
-            curCommit = Commit.fromFile(firstParentCommitId);
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            Commit.fromFile(commitGraph.getId(position)).printLog(out);
+            printed++;
+        }
+        out.println();
+        out.flush();
+        if (path != null) {
+            debug("log: %d commits, %d read, %d false positives", visited, read, read - matched);
         }
-        System.out.println(logBuilder);
     }
 
     /**
-     * Print all commits logs ever made.
+     * Tells if the commit changed the file, or a file in the directory, against its first parent.
      */
-    public static void globalLog() {
-        StringBuilder logBuilder = new StringBuilder();
-        // As the project goes, the runtime should be O(N) where N is the number of commits ever made.
-        // But here I choose to log the commits in the order of created date, which has a runtime of O(NlogN).
-        forEachCommit(commit -> logBuilder.append(commit.getLog()).append("\n"));
-        System.out.println(logBuilder);
+    private static boolean hasChanged(CommitGraph commitGraph, int position, File file) {
+        Commit commit = Commit.fromFile(commitGraph.getId(position));
+        int parent = commitGraph.getFirstParent(position);
+        Set<String> changedFilePaths = parent == CommitGraph.NONE
+                ? commit.getTracked().keySet()
+                : commit.diff(Commit.fromFile(commitGraph.getId(parent))).keySet();
+        String dirPrefix = file.getPath() + File.separator;
+        for (String filePath : changedFilePaths) {
+            if (filePath.equals(file.getPath()) || filePath.startsWith(dirPrefix)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Iterate all commits in the order of created date.
-     * and execute callback function on each of them.
+     * Print the logs of all commits reachable from a branch, as the walk goes.
+     * Skipped commits are not read.
      *
-     * @param cb Function that accepts Commit as a single argument
+     * @param skip     Number of commits to skip before printing
+     * @param maxCount Max number of commits to print, or -1 for all
      */
-    private static void forEachCommitInOrder(Consumer<Commit> cb) {
-        Comparator<Commit> commitComparator = Comparator.comparing(Commit::getDate).reversed();
-        Queue<Commit> commitsPriorityQueue = new PriorityQueue<>(commitComparator);
-        forEachCommit(cb, commitsPriorityQueue);
+    public static void globalLog(int skip, int maxCount) {
+        PrintStream out = openOutput();
+        int[] counts = {skip, 0};
+        forEachCommit((commitGraph, position) -> {
+            if (maxCount >= 0 && counts[1] >= maxCount) {
+                return false;
+            }
+            if (counts[0] > 0) {
+                counts[0]--;
+            } else {
+                Commit.fromFile(commitGraph.getId(position)).printLog(out);
+                counts[1]++;
+            }
+            return true;
+        }, commitGraph -> new ArrayDeque<>());
+        out.println();
+        out.flush();
     }
 
     /**
-     * Iterate all commits and execute callback function on each of them.
+     * Open a buffered stream on the standard output, so that a long output is
+     * written in large chunks rather than flushed line by line. The caller must flush it.
      *
-     * @param cb Function that accepts Commit as a single argument
+     * @return PrintStream instance
      */
-    private static void forEachCommit(Consumer<Commit> cb) {
-        Queue<Commit> commitsQueue = new ArrayDeque<>();
-        forEachCommit(cb, commitsQueue);
+    private static PrintStream openOutput() {
+        return new PrintStream(new BufferedOutputStream(System.out, OUTPUT_BUFFER_SIZE), false);
     }
 
     /**
-     * Helper method to iterate all commits.
+     * Get the head commit ids of all branches, in the order of the branch names.
      *
-     * @param cb                 Callback function executed on the current commit
-     * @param queueToHoldCommits New Queue instance to hold the commits while iterating
+     * @return List of commit SHA1 ids
      */
-    @SuppressWarnings("ConstantConditions")
-    private static void forEachCommit(Consumer<Commit> cb, Queue<Commit> queueToHoldCommits) {
-        Set<String> checkedCommitIds = new HashSet<>();
-
-        File[] branchHeadFiles = BRANCHES_HEADS_DIR.listFiles();
-        Arrays.sort(branchHeadFiles, Comparator.comparing(File::getName));
-
+    private static List<String> getBranchHeadCommitIds() {
+        List<File> branchHeadFiles = getBranchHeadFiles();
+        List<String> branchHeadCommitIds = new ArrayList<>();
         for (File branchHeadFile : branchHeadFiles) {
-            String branchHeadCommitId = readContentsAsString(branchHeadFile);
-            if (checkedCommitIds.contains(branchHeadCommitId)) {
+            branchHeadCommitIds.add(readContentsAsString(branchHeadFile));
+        }
+        return branchHeadCommitIds;
+    }
+
+    /**
+     * Helper method to iterate all commits. The walk follows the commit graph,
+     * so only the commits the callback reads are read.
+     *
+     * @param cb       Callback function executed on the commit graph and the position of the current
+     *                 commit, which returns false to stop the walk
+     * @param newQueue Function that creates a new Queue instance to hold the commit graph positions while iterating
+     */
+    private static void forEachCommit(BiPredicate<CommitGraph, Integer> cb,
+                                      Function<CommitGraph, Queue<Integer>> newQueue) {
+        List<String> branchHeadCommitIds = getBranchHeadCommitIds();
+        CommitGraph commitGraph = getCommitGraph(branchHeadCommitIds);
+        Queue<Integer> queueToHoldCommits = newQueue.apply(commitGraph);
+        boolean[] checked = new boolean[commitGraph.size()];
+
+        for (String branchHeadCommitId : branchHeadCommitIds) {
+            int position = commitGraph.indexOf(branchHeadCommitId);
+            if (checked[position]) {
                 continue;
             }
-            checkedCommitIds.add(branchHeadCommitId);
-            Commit branchHeadCommit = Commit.fromFile(branchHeadCommitId);
-            queueToHoldCommits.add(branchHeadCommit);
+            checked[position] = true;
+            queueToHoldCommits.add(position);
         }
 
-        while (true) {
-            Commit nextCommit = queueToHoldCommits.poll();
-            cb.accept(nextCommit);
-            List<String> parentCommitIds = nextCommit.getParents();
-            if (parentCommitIds.isEmpty()) {
-                break;
+        while (!queueToHoldCommits.isEmpty()) {
+            int position = queueToHoldCommits.poll();
+            if (!cb.test(commitGraph, position)) {
+                return;
             }
-            for (String parentCommitId : parentCommitIds) {
-                if (checkedCommitIds.contains(parentCommitId)) {
+            int[] parents = {commitGraph.getFirstParent(position), commitGraph.getSecondParent(position)};
+            for (int parent : parents) {
+                if (parent == CommitGraph.NONE || checked[parent]) {
                     continue;
                 }
-                checkedCommitIds.add(parentCommitId);
-                Commit parentCommit = Commit.fromFile(parentCommitId);
-                queueToHoldCommits.add(parentCommit);
+                checked[parent] = true;
+                queueToHoldCommits.add(parent);
             }
         }
     }
 
     /**
-     * Print all commits that have the exact message.
+     * Get the commit graph holding the commits. The graph is written from the history
+     * if the repository does not have one yet, or if it misses any of the commits.
+     *
+     * @param commitIds Commit SHA1 ids that must be in the graph
+     * @return CommitGraph instance
+     */
+    private static CommitGraph getCommitGraph(Collection<String> commitIds) {
+        if (!CommitGraph.exists()) {
+            CommitGraph.write(getCommitsInTopologicalOrder());
+        }
+        CommitGraph commitGraph = CommitGraph.get();
+        for (String commitId : commitIds) {
+            if (commitGraph.indexOf(commitId) == CommitGraph.NONE) {
+                CommitGraph.write(getCommitsInTopologicalOrder());
+                return CommitGraph.get();
+            }
+        }
+        return commitGraph;
+    }
+
+    /**
+     * Print all commits that have the exact message. Only the commits found in
+     * the message index are read.
      *
      * @param msg Content of the message
      */
     public static void find(String msg) {
+        CommitGraph commitGraph = getCommitGraph(getBranchHeadCommitIds());
+        printFound(commitGraph, commitGraph.getMessageIndex().positionsWithMessage(msg),
+                commit -> commit.getMessage().equals(msg));
+    }
+
+    /**
+     * Print all commits whose message has all the words of the text, ignoring case.
+     * Words are runs of letters and digits.
+     *
+     * @param text Words to search
+     */
+    public static void findContaining(String text) {
+        Set<String> words = MessageIndex.getWords(text);
+        if (words.isEmpty()) {
+            exit("Found no commit with that message.");
+        }
+        CommitGraph commitGraph = getCommitGraph(getBranchHeadCommitIds());
+        printFound(commitGraph, commitGraph.getMessageIndex().positionsWithWords(words),
+                commit -> MessageIndex.getWords(commit.getMessage()).containsAll(words));
+    }
+
+    /**
+     * Print the ids of the candidate commits that match, latest added first.
+     *
+     * @param commitGraph CommitGraph instance
+     * @param positions   Positions of the candidate commits
+     * @param matcher     Function that tells if a commit matches
+     */
+    private static void printFound(CommitGraph commitGraph, SortedSet<Integer> positions,
+                                   Predicate<Commit> matcher) {
         StringBuilder resultBuilder = new StringBuilder();
-        forEachCommit(commit -> {
-            if (commit.getMessage().equals(msg)) {
+        List<Integer> candidates = new ArrayList<>(positions);
+        Collections.reverse(candidates);
+        for (int position : candidates) {
+            Commit commit = Commit.fromFile(commitGraph.getId(position));
+            if (matcher.test(commit)) {
                 resultBuilder.append(commit.getId()).append("\n");
             }
-        });
+        }
+        debug("find: %d commits, %d read", commitGraph.size(), candidates.size());
         if (resultBuilder.length() == 0) {
             exit("Found no commit with that message.");
         }
@@ -380,10 +660,11 @@ public class Repository {
         // branches
         statusBuilder.append("=== Branches ===").append("\n");
         statusBuilder.append("*").append(currentBranch.get()).append("\n");
-        String[] branchNames = BRANCHES_HEADS_DIR.list((dir, name) -> !name.equals(currentBranch.get()));
-        Arrays.sort(branchNames);
-        for (String branchName : branchNames) {
-            statusBuilder.append(branchName).append("\n");
+        for (File branchHeadFile : getBranchHeadFiles()) {
+            String branchName = getBranchName(branchHeadFile);
+            if (!branchName.equals(currentBranch.get())) {
+                statusBuilder.append(branchName).append("\n");
+            }
         }
         statusBuilder.append("\n");
 
@@ -406,7 +687,7 @@ public class Repository {
         Set<String> deletedNotStageFilePaths = new HashSet<>();
 
         Map<String, String> currentFilesMap = getCurrentFilesMap();
-        Map<String, String> trackedFilesMap = HEADCommit.get().getTracked();
+        Map<String, String> trackedFilesMap = new TreeMap<>(HEADCommit.get().getTracked());
 
         trackedFilesMap.putAll(addedFilesMap);
         for (String filePath : removedFilePathsSet) {
@@ -437,8 +718,7 @@ public class Repository {
         modifiedNotStageFilePaths.sort(String::compareTo);
 
         for (String filePath : modifiedNotStageFilePaths) {
-            String fileName = Paths.get(filePath).getFileName().toString();
-            statusBuilder.append(fileName);
+            statusBuilder.append(Tree.getRelativePath(filePath));
             if (deletedNotStageFilePaths.contains(filePath)) {
                 statusBuilder.append(" ").append("(deleted)");
             } else {
@@ -453,11 +733,52 @@ public class Repository {
         appendFileNamesInOrder(statusBuilder, currentFilesMap.keySet());
         statusBuilder.append("\n");
 
+        // renamed and copied files, from the files gone or modified since the current commit
+        // to the files new since then, staged or not
+        Map<String, String> HEADCommitTrackedFilesMap = HEADCommit.get().getTracked();
+        Map<String, String> deletedFilesMap = new HashMap<>();
+        Map<String, String> modifiedFilesMap = new HashMap<>();
+        Set<String> modifiedFilePaths = new HashSet<>(modifiedNotStageFilePaths);
+        for (Map.Entry<String, String> entry : HEADCommitTrackedFilesMap.entrySet()) {
+            String filePath = entry.getKey();
+            if (removedFilePathsSet.contains(filePath) || deletedNotStageFilePaths.contains(filePath)) {
+                deletedFilesMap.put(filePath, entry.getValue());
+            } else if (modifiedFilePaths.contains(filePath) || addedFilesMap.containsKey(filePath)) {
+                modifiedFilesMap.put(filePath, entry.getValue());
+            }
+        }
+        Map<String, String> newFilesMap = new HashMap<>(currentFilesMap);
+        for (Map.Entry<String, String> entry : addedFilesMap.entrySet()) {
+            if (!HEADCommitTrackedFilesMap.containsKey(entry.getKey())) {
+                newFilesMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        List<RenameDetector.Rename> renames = RenameDetector.detect(deletedFilesMap, modifiedFilesMap, newFilesMap,
+                filePath -> readBlob(HEADCommitTrackedFilesMap.get(filePath)),
+                filePath -> addedFilesMap.containsKey(filePath)
+                        ? readBlob(addedFilesMap.get(filePath)) : readContents(new File(filePath)));
+        if (!renames.isEmpty()) {
+            statusBuilder.append("=== Renamed Files ===").append("\n");
+            for (RenameDetector.Rename rename : renames) {
+                statusBuilder.append(Tree.getRelativePath(rename.source)).append(" -> ")
+                        .append(Tree.getRelativePath(rename.target));
+                if (rename.isCopy) {
+                    statusBuilder.append(" ").append("(copied)");
+                }
+                statusBuilder.append("\n");
+            }
+            statusBuilder.append("\n");
+        }
+
+        if (stagingArea.get().isStatsChanged()) {
+            stagingArea.get().save();
+        }
+
         System.out.println(statusBuilder);
     }
 
     /**
-     * Append lines of file name in order from files paths Set to StringBuilder.
+     * Append lines of path relative to CWD in order from files paths Set to StringBuilder.
      *
      * @param stringBuilder       StringBuilder instance
      * @param filePathsCollection Collection of file paths
@@ -468,7 +789,7 @@ public class Repository {
     }
 
     /**
-     * Append lines of file name in order from files paths Set to StringBuilder.
+     * Append lines of path relative to CWD in order from files paths List to StringBuilder.
      *
      * @param stringBuilder StringBuilder instance
      * @param filePathsList List of file paths
@@ -476,24 +797,84 @@ public class Repository {
     private static void appendFileNamesInOrder(StringBuilder stringBuilder, List<String> filePathsList) {
         filePathsList.sort(String::compareTo);
         for (String filePath : filePathsList) {
-            String fileName = Paths.get(filePath).getFileName().toString();
-            stringBuilder.append(fileName).append("\n");
+            stringBuilder.append(Tree.getRelativePath(filePath)).append("\n");
         }
     }
 
     /**
      * Get a Map of file paths and their SHA1 id from CWD.
+     * Files are hashed in parallel, and only those that changed since they were
+     * last hashed are read, see {@link StagingArea#getBlobIds(List)}.
      *
      * @return Map with file path as key and SHA1 id as value
      */
-    private static Map<String, String> getCurrentFilesMap() {
-        Map<String, String> filesMap = new HashMap<>();
-        for (File file : currentFiles.get()) {
-            String filePath = file.getPath();
-            String blobId = Blob.generatedId(file);
-            filesMap.put(filePath, blobId);
+    private Map<String, String> getCurrentFilesMap() {
+        return stagingArea.get().getBlobIds(currentFiles.get());
+    }
+
+    /**
+     * Print the changes of the files in the unified format. With no commit, from the
+     * staged version of the tracked files to the working directory; with one, from
+     * the commit to the working directory; with two, from the first commit to the second.
+     *
+     * @param commitIds Zero, one or two commit ids, whole or abbreviated
+     */
+    public void diff(List<String> commitIds) {
+        Map<String, String> filesMapA;
+        Map<String, String> filesMapB;
+        boolean isWorktree = commitIds.size() < 2;
+        if (isWorktree) {
+            Map<String, String> stagedFilesMap = new HashMap<>(HEADCommit.get().getTracked());
+            stagedFilesMap.putAll(stagingArea.get().getAdded());
+            stagedFilesMap.keySet().removeAll(stagingArea.get().getRemoved());
+            filesMapA = commitIds.isEmpty()
+                    ? stagedFilesMap : Commit.fromFile(getActualCommitId(commitIds.get(0))).getTracked();
+            filesMapB = getCurrentFilesMap();
+            filesMapB.keySet().retainAll(stagedFilesMap.keySet());
+        } else {
+            filesMapA = Commit.fromFile(getActualCommitId(commitIds.get(0))).getTracked();
+            filesMapB = Commit.fromFile(getActualCommitId(commitIds.get(1))).getTracked();
+        }
+
+        SortedSet<String> filePaths = new TreeSet<>(filesMapA.keySet());
+        filePaths.addAll(filesMapB.keySet());
+        PrintStream out = openOutput();
+        for (String filePath : filePaths) {
+            String blobIdA = filesMapA.get(filePath);
+            String blobIdB = filesMapB.get(filePath);
+            if (Objects.equals(blobIdA, blobIdB)) {
+                continue;
+            }
+            String path = Tree.getRelativePath(filePath);
+            LineDiff.Text a = new LineDiff.Text(blobIdA == null ? new byte[0] : readBlob(blobIdA));
+            LineDiff.Text b = new LineDiff.Text(blobIdB == null ? new byte[0]
+                    : isWorktree ? readContents(new File(filePath)) : readBlob(blobIdB));
+            String nameA = blobIdA == null ? "/dev/null" : "a/" + path;
+            String nameB = blobIdB == null ? "/dev/null" : "b/" + path;
+            if (a.isBinary() || b.isBinary()) {
+                out.printf("Binary files %s and %s differ%n", nameA, nameB);
+                continue;
+            }
+            out.println("--- " + nameA);
+            out.println("+++ " + nameB);
+            LineDiff.printUnified(out, a, b, LineDiff.diff(a, b));
+        }
+        out.flush();
+
+        if (stagingArea.get().isStatsChanged()) {
+            stagingArea.get().save();
+        }
+    }
+
+    /**
+     * Read the whole content of the blob.
+     */
+    private static byte[] readBlob(String blobId) {
+        try (InputStream in = Blob.fromFile(blobId).openContent()) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
-        return filesMap;
     }
 
     /**
@@ -528,40 +909,31 @@ public class Repository {
      * @param commitId Abbreviate or Whole commit SHA1 id
      * @return whole commit SHA1 id
      */
-    @SuppressWarnings("ConstantConditions")
     private static String getActualCommitId(String commitId) {
-        if (commitId.length() < UID_LENGTH) {
-            if (commitId.length() < 4) {
-                exit("Commit id should contain at least 4 characters.");
-            }
-            String objectDirName = getObjectDirName(commitId);
-            File objectDir = join(OBJECTS_DIR, objectDirName);
-            if (!objectDir.exists()) {
-                exit("No commit with that id exists.");
-            }
-
-            boolean isFound = false;
-            String objectFileNamePrefix = getObjectFileName(commitId);
+        if (commitId.length() < 4) {
+            exit("Commit id should contain at least 4 characters.");
+        }
+        if (commitId.length() > UID_LENGTH || !commitId.matches("[0-9a-f]+")) {
+            exit("No commit with that id exists.");
+        }
 
-            for (File objectFile : objectDir.listFiles()) {
-                String objectFileName = objectFile.getName();
-                if (objectFileName.startsWith(objectFileNamePrefix) && isFileInstanceOf(objectFile, Commit.class)) {
-                    if (isFound) {
-                        exit("More than 1 commit has the same id prefix");
-                    }
-                    commitId = objectDirName + objectFileName;
-                    isFound = true;
+        Set<String> commitIds = getCommitGraph(Collections.emptyList()).idsWithPrefix(commitId);
+        if (commitIds.isEmpty()) {
+            // Commits that no branch pointed to when the graph was written from the history.
+            commitIds = new TreeSet<>();
+            for (String objectId : ObjectStore.idsWithPrefix(commitId)) {
+                if (ObjectStore.isType(objectId, ObjectStore.COMMIT)) {
+                    commitIds.add(objectId);
                 }
             }
-            if (!isFound) {
-                exit("No commit with that id exists.");
-            }
-        } else {
-            if (!getObjectFile(commitId).exists()) {
-                exit("No commit with that id exists.");
-            }
         }
-        return commitId;
+        if (commitIds.isEmpty()) {
+            exit("No commit with that id exists.");
+        }
+        if (commitIds.size() > 1) {
+            exit("More than 1 commit has the same id prefix");
+        }
+        return commitIds.iterator().next();
     }
 
     /**
@@ -625,12 +997,16 @@ public class Repository {
      * @param targetCommit Commit instance
      */
     private void checkoutCommit(Commit targetCommit) {
+        Map<String, String> currentFilesMap = getCurrentFilesMap();
         stagingArea.get().clear();
         stagingArea.get().save();
+        Map<String, String> targetCommitTrackedFilesMap = targetCommit.getTracked();
         for (File file: currentFiles.get()) {
-            rm(file);
+            if (!targetCommitTrackedFilesMap.containsKey(file.getPath())) {
+                deleteWorktreeFile(file);
+            }
         }
-        targetCommit.restoreAllTracked();
+        targetCommit.restoreAllTracked(currentFilesMap);
     }
 
     /**
@@ -660,6 +1036,11 @@ public class Repository {
             exit("Cannot remove the current branch.");
         }
         rm(targetBranchHeadFile);
+        // Remote branches are in a directory per remote, removed with its last branch.
+        File dir = targetBranchHeadFile.getParentFile();
+        while (!dir.equals(BRANCHES_HEADS_DIR) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
     }
 
     /**
@@ -707,9 +1088,59 @@ public class Repository {
 
         boolean hasConflict = false;
 
-        Map<String, String> HEADCommitTrackedFilesMap = new HashMap<>(HEADCommit.get().getTracked());
-        Map<String, String> targetBranchHeadCommitTrakcedFilesMap = targetBranchHeadCommit.getTracked();
-        Map<String, String> lcaCommitTrackedFilesMap = lcaCommit.getTracked();
+        // Files that are the same in the three commits are left as they are, so only
+        // the files changed on either side since the split point are compared.
+        Map<String, String> HEADCommitTrackedFilesMap = new HashMap<>();
+        Map<String, String> targetBranchHeadCommitTrakcedFilesMap = new TreeMap<>();
+        Map<String, String> lcaCommitTrackedFilesMap = new TreeMap<>();
+        Map<String, String[]> HEADCommitChanges = lcaCommit.diff(HEADCommit.get());
+        Map<String, String[]> targetBranchHeadCommitChanges = lcaCommit.diff(targetBranchHeadCommit);
+        addChangedFiles(HEADCommitChanges, lcaCommitTrackedFilesMap, HEADCommitTrackedFilesMap);
+        addChangedFiles(targetBranchHeadCommitChanges, lcaCommitTrackedFilesMap, targetBranchHeadCommitTrakcedFilesMap);
+        // A file changed on one side only is the same as the split point on the other.
+        for (Map.Entry<String, String> entry : lcaCommitTrackedFilesMap.entrySet()) {
+            if (!HEADCommitTrackedFilesMap.containsKey(entry.getKey())) {
+                HEADCommitTrackedFilesMap.put(entry.getKey(), entry.getValue());
+            }
+            if (!targetBranchHeadCommitTrakcedFilesMap.containsKey(entry.getKey())) {
+                targetBranchHeadCommitTrakcedFilesMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        HEADCommitTrackedFilesMap.values().removeIf(Objects::isNull);
+        targetBranchHeadCommitTrakcedFilesMap.values().removeIf(Objects::isNull);
+        lcaCommitTrackedFilesMap.values().removeIf(Objects::isNull);
+
+        // A file renamed on one side and modified on the other is merged under its new
+        // name, so that the changes of both sides end up in one file. Files renamed on
+        // both sides, or renamed on one side and deleted on the other, are left as a
+        // deletion and new files.
+        Map<String, String> HEADCommitRenames = getRenames(HEADCommitChanges);
+        Map<String, String> targetBranchHeadCommitRenames = getRenames(targetBranchHeadCommitChanges);
+        for (Map.Entry<String, String> entry : HEADCommitRenames.entrySet()) {
+            String oldFilePath = entry.getKey();
+            String newFilePath = entry.getValue();
+            String targetBranchHeadCommitBlobId = targetBranchHeadCommitTrakcedFilesMap.get(oldFilePath);
+            if (!targetBranchHeadCommitRenames.containsKey(oldFilePath) && targetBranchHeadCommitBlobId != null
+                    && !targetBranchHeadCommitBlobId.equals(lcaCommitTrackedFilesMap.get(oldFilePath))
+                    && !targetBranchHeadCommitTrakcedFilesMap.containsKey(newFilePath)) {
+                lcaCommitTrackedFilesMap.put(newFilePath, lcaCommitTrackedFilesMap.remove(oldFilePath));
+                targetBranchHeadCommitTrakcedFilesMap.put(newFilePath,
+                        targetBranchHeadCommitTrakcedFilesMap.remove(oldFilePath));
+            }
+        }
+        Map<String, String> movedFilesMap = new TreeMap<>();
+        for (Map.Entry<String, String> entry : targetBranchHeadCommitRenames.entrySet()) {
+            String oldFilePath = entry.getKey();
+            String newFilePath = entry.getValue();
+            String HEADCommitBlobId = HEADCommitTrackedFilesMap.get(oldFilePath);
+            if (!HEADCommitRenames.containsKey(oldFilePath) && HEADCommitBlobId != null
+                    && !HEADCommitBlobId.equals(lcaCommitTrackedFilesMap.get(oldFilePath))
+                    && !HEADCommitTrackedFilesMap.containsKey(newFilePath)) {
+                lcaCommitTrackedFilesMap.put(newFilePath, lcaCommitTrackedFilesMap.remove(oldFilePath));
+                HEADCommitTrackedFilesMap.put(newFilePath, HEADCommitTrackedFilesMap.remove(oldFilePath));
+                movedFilesMap.put(oldFilePath, newFilePath);
+            }
+        }
 
         for (Map.Entry<String, String> entry : lcaCommitTrackedFilesMap.entrySet()) {
             String filePath = entry.getKey();
@@ -724,14 +1155,13 @@ public class Repository {
                     if (HEADCommitBlobId != null) { // exists in the current branch
                         if (HEADCommitBlobId.equals(blobId)) { // not modified in the current branch
                             // case 1
-                            Blob.fromFile(targetBranchHeadCommitBlobId).writeContentToSource();
+                            Blob.fromFile(targetBranchHeadCommitBlobId).writeContentTo(file);
                             stagingArea.get().add(file);
                         } else { // modified in the current branch
                             if (!HEADCommitBlobId.equals(targetBranchHeadCommitBlobId)) { // modified in different ways
-                                // case 8
-                                hasConflict = true;
-                                String conflictContent = getConflictContent(HEADCommitBlobId, targetBranchHeadCommitBlobId);
-                                writeContents(file, conflictContent);
+                                // case 8, unless the changes are to different lines
+                                hasConflict |= mergeContent(file, blobId, HEADCommitBlobId,
+                                        targetBranchHeadCommitBlobId);
                                 stagingArea.get().add(file);
                             } // else modified in the same ways
                             // case 3
@@ -740,6 +1170,7 @@ public class Repository {
                         // case 8
                         hasConflict = true;
                         String conflictContent = getConflictContent(null, targetBranchHeadCommitBlobId);
+                        mkdirs(file.getParentFile());
                         writeContents(file, conflictContent);
                         stagingArea.get().add(file);
                     }
@@ -774,20 +1205,29 @@ public class Repository {
 
             if (HEADCommitBlobId != null) { // added in both branches
                 if (!HEADCommitBlobId.equals(targetBranchHeadCommitBlobId)) { // modified in different ways
-                    // case 8
-                    hasConflict = true;
-                    String conflictContent = getConflictContent(HEADCommitBlobId, targetBranchHeadCommitBlobId);
-                    writeContents(targetBranchHeadCommitFile, conflictContent);
+                    // case 8, unless the changes are to different lines
+                    hasConflict |= mergeContent(targetBranchHeadCommitFile, null, HEADCommitBlobId,
+                            targetBranchHeadCommitBlobId);
                     stagingArea.get().add(targetBranchHeadCommitFile);
                 } // else modified in the same ways
                 // case 3
             } else { // only added in the target branch
                 // case 5
-                Blob.fromFile(targetBranchHeadCommitBlobId).writeContentToSource();
-                stagingArea.get().add(targetBranchHeadFile);
+                Blob.fromFile(targetBranchHeadCommitBlobId).writeContentTo(targetBranchHeadCommitFile);
+                stagingArea.get().add(targetBranchHeadCommitFile);
             }
         }
 
+        // Files renamed in the target branch only need to move if it did not modify them.
+        for (Map.Entry<String, String> entry : movedFilesMap.entrySet()) {
+            File newFile = new File(entry.getValue());
+            if (!newFile.exists()) {
+                Blob.fromFile(HEADCommitChanges.get(entry.getKey())[1]).writeContentTo(newFile);
+                stagingArea.get().add(newFile);
+            }
+            stagingArea.get().remove(new File(entry.getKey()));
+        }
+
         String newCommitMessage = "Merged" + " " + targetBranchName + " " + "into" + " " + currentBranch.get() + ".";
         commit(newCommitMessage, targetBranchHeadCommit.getId());
 
@@ -797,30 +1237,563 @@ public class Repository {
     }
 
     /**
-     * Get the id of the latest ancestor of the two commits.
+     * Add the files of a diff against the split point to the maps of both sides.
+     * A file missing on a side is put with a null SHA1 id.
+     *
+     * @param changes        Diff from the split point to the other commit
+     * @param lcaFilesMap    Map of the split point files
+     * @param otherFilesMap  Map of the other commit files
+     */
+    private static void addChangedFiles(Map<String, String[]> changes, Map<String, String> lcaFilesMap,
+                                        Map<String, String> otherFilesMap) {
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            lcaFilesMap.put(entry.getKey(), entry.getValue()[0]);
+            otherFilesMap.put(entry.getKey(), entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * Get the files renamed in a diff against the split point, found with {@link RenameDetector}.
+     *
+     * @param changes Diff from the split point to the other commit
+     * @return Map with old file path as key and new file path as value
+     */
+    private static Map<String, String> getRenames(Map<String, String[]> changes) {
+        Map<String, String> deletedFilesMap = new HashMap<>();
+        Map<String, String> addedFilesMap = new HashMap<>();
+        for (Map.Entry<String, String[]> entry : changes.entrySet()) {
+            if (entry.getValue()[1] == null) {
+                deletedFilesMap.put(entry.getKey(), entry.getValue()[0]);
+            } else if (entry.getValue()[0] == null) {
+                addedFilesMap.put(entry.getKey(), entry.getValue()[1]);
+            }
+        }
+        Map<String, String> renames = new HashMap<>();
+        for (RenameDetector.Rename rename : RenameDetector.detect(deletedFilesMap, Collections.emptyMap(),
+                addedFilesMap, filePath -> readBlob(deletedFilesMap.get(filePath)),
+                filePath -> readBlob(addedFilesMap.get(filePath)))) {
+            if (!rename.isCopy) {
+                renames.put(rename.source, rename.target);
+            }
+        }
+        return renames;
+    }
+
+    /**
+     * Get the best common ancestor of the two commits with {@link CommitGraph#getMergeBase(int, int)}.
      *
      * @param commitA Commit instance
      * @param commitB Commit instance
-     * @return Commit SHA1 id
+     * @return Commit instance
      */
-    @SuppressWarnings("ConstantConditions")
     private static Commit getLatestCommonAncestorCommit(Commit commitA, Commit commitB) {
-        Comparator<Commit> commitComparator = Comparator.comparing(Commit::getDate).reversed();
-        Queue<Commit> commitsQueue = new PriorityQueue<>(commitComparator);
-        commitsQueue.add(commitA);
-        commitsQueue.add(commitB);
-        Set<String> checkedCommitIds = new HashSet<>();
-        while (true) {
-            Commit latestCommit = commitsQueue.poll();
-            List<String> parentCommitIds = latestCommit.getParents();
-            String firstParentCommitId = parentCommitIds.get(0);
-            Commit firstParentCommit = Commit.fromFile(firstParentCommitId);
-            if (checkedCommitIds.contains(firstParentCommitId)) {
-                return firstParentCommit;
-            }
-            commitsQueue.add(firstParentCommit);
-            checkedCommitIds.add(firstParentCommitId);
+        CommitGraph commitGraph = getCommitGraph(Arrays.asList(commitA.getId(), commitB.getId()));
+        int mergeBase = commitGraph.getMergeBase(commitGraph.indexOf(commitA.getId()),
+                commitGraph.indexOf(commitB.getId()));
+        return Commit.fromFile(commitGraph.getId(mergeBase));
+    }
+
+    /**
+     * Push the current branch to a branch of the remote, sending the commits, trees
+     * and blobs the remote does not have as one pack. The remote branch must be an
+     * ancestor of the current branch, and is created if it does not exist.
+     * <p>
+     * The remote has every ancestor of its branch heads, so the commits to send are
+     * found on the commit graph, by marking the ancestors of the remote branch heads
+     * this repository knows, without reading any commit.
+     *
+     * @param remoteName       Name of the remote
+     * @param remoteBranchName Name of the branch of the remote
+     */
+    public void push(String remoteName, String remoteBranchName) {
+        Remote remote = Remote.get(remoteName);
+        try {
+            String HEADCommitId = HEADCommit.get().getId();
+            CommitGraph commitGraph = getCommitGraph(Collections.singletonList(HEADCommitId));
+            int HEADPosition = commitGraph.indexOf(HEADCommitId);
+
+            List<Integer> remoteHeadPositions = new ArrayList<>();
+            for (String remoteHeadId : remote.getBranchHeads()) {
+                int position = commitGraph.indexOf(remoteHeadId);
+                if (position != CommitGraph.NONE) {
+                    remoteHeadPositions.add(position);
+                }
+            }
+            String remoteBranchHeadId = remote.getBranchHead(remoteBranchName);
+            if (remoteBranchHeadId != null) {
+                int position = commitGraph.indexOf(remoteBranchHeadId);
+                if (position == CommitGraph.NONE || commitGraph.getMergeBase(HEADPosition, position) != position) {
+                    exit("Please pull down remote changes before pushing.");
+                }
+            }
+
+            boolean[] isInRemote = markAncestors(commitGraph, remoteHeadPositions, new boolean[commitGraph.size()]);
+            boolean[] isToSend = markAncestors(commitGraph, Collections.singletonList(HEADPosition), isInRemote.clone());
+            List<String> commitIds = new ArrayList<>();
+            for (int position = 0; position < commitGraph.size(); position++) {
+                if (isToSend[position] && !isInRemote[position] && !remote.contains(commitGraph.getId(position))) {
+                    commitIds.add(commitGraph.getId(position));
+                }
+            }
+            Remote.sendPack(commitIds, ObjectStore::read, remote::contains, remote.getPackDir());
+            remote.setBranchHead(remoteBranchName, HEADCommitId);
+        } finally {
+            remote.close();
+        }
+    }
+
+    /**
+     * Mark the commits and their ancestors, not walking past the commits already marked.
+     *
+     * @param commitGraph CommitGraph instance
+     * @param positions   Positions of the commits
+     * @param marked      Marks by position, updated
+     * @return The marks
+     */
+    private static boolean[] markAncestors(CommitGraph commitGraph, List<Integer> positions, boolean[] marked) {
+        Deque<Integer> stack = new ArrayDeque<>();
+        for (int position : positions) {
+            if (!marked[position]) {
+                marked[position] = true;
+                stack.push(position);
+            }
+        }
+        while (!stack.isEmpty()) {
+            int position = stack.pop();
+            int[] parents = {commitGraph.getFirstParent(position), commitGraph.getSecondParent(position)};
+            for (int parent : parents) {
+                if (parent != CommitGraph.NONE && !marked[parent]) {
+                    marked[parent] = true;
+                    stack.push(parent);
+                }
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Fetch a branch of the remote into the branch [remote name]/[remote branch name],
+     * receiving the commits, trees and blobs this repository does not have as one pack.
+     * The commits received are appended to the commit graph.
+     *
+     * @param remoteName       Name of the remote
+     * @param remoteBranchName Name of the branch of the remote
+     * @return Name of the local branch
+     */
+    public static String fetch(String remoteName, String remoteBranchName) {
+        Remote remote = Remote.get(remoteName);
+        String remoteBranchHeadId;
+        List<String> commitIds;
+        try {
+            remoteBranchHeadId = remote.getBranchHead(remoteBranchName);
+            if (remoteBranchHeadId == null) {
+                exit("That remote does not have that branch.");
+            }
+            commitIds = remote.getMissingCommits(remoteBranchHeadId, ObjectStore::contains);
+            Remote.sendPack(commitIds, remote::read, ObjectStore::contains, ObjectStore.PACK_DIR);
+        } finally {
+            remote.close();
+        }
+        ObjectStore.invalidate();
+
+        Set<String> receivedIds = new HashSet<>(commitIds);
+        Set<String> knownParentIds = new HashSet<>();
+        List<Commit> commits = new ArrayList<>();
+        for (String commitId : commitIds) {
+            Commit commit = Commit.fromFile(commitId);
+            commits.add(commit);
+            for (String parentId : commit.getParents()) {
+                if (!receivedIds.contains(parentId)) {
+                    knownParentIds.add(parentId);
+                }
+            }
+        }
+        CommitGraph commitGraph = getCommitGraph(knownParentIds);
+        if (knownParentIds.stream().allMatch(id -> commitGraph.indexOf(id) != CommitGraph.NONE)) {
+            for (Commit commit : commits) {
+                CommitGraph.append(commit);
+            }
+        } // else written again from the history when needed.
+
+        String branchName = remoteName + "/" + remoteBranchName;
+        setBranchHeadCommit(branchName, remoteBranchHeadId);
+        return branchName;
+    }
+
+    /**
+     * Fetch a branch of the remote, then merge it into the current branch.
+     *
+     * @param remoteName       Name of the remote
+     * @param remoteBranchName Name of the branch of the remote
+     */
+    public void pull(String remoteName, String remoteBranchName) {
+        merge(fetch(remoteName, remoteBranchName));
+    }
+
+    /**
+     * Pack all objects into a single pack with delta compression.
+     */
+    public static void repack() {
+        ObjectStore.RepackResult result = ObjectStore.repack(getCommitsInTopologicalOrder());
+        if (result == null) {
+            exit("Nothing to repack.");
+        }
+        message("Packed %d objects (%d deltas), %d bytes -> %d bytes.",
+                result.objects, result.deltas, result.sizeBefore, result.sizeAfter);
+    }
+
+    /**
+     * Delete the objects not reachable from a branch head or from the index.
+     * Commits are marked by walking the commit graph, then trees and blobs from
+     * the root tree of each commit, without reading again the trees already
+     * marked, so the mark is linear in the number of reachable objects. Packs
+     * holding unreachable objects are repacked without them, and the commit graph
+     * is written again if it holds unreachable commits.
+     */
+    public static void gc() {
+        long startTime = System.nanoTime();
+        Set<String> marked = new HashSet<>();
+        int[] reachableCommits = {0};
+        forEachCommit((commitGraph, position) -> {
+            Commit commit = Commit.fromFile(commitGraph.getId(position));
+            marked.add(commit.getId());
+            if (commit.getTreeId() != null) {
+                Tree.mark(commit.getTreeId(), marked);
+            } else {
+                marked.addAll(commit.getTracked().values());
+            }
+            reachableCommits[0]++;
+            return true;
+        }, commitGraph -> new ArrayDeque<>());
+        if (INDEX.exists()) {
+            marked.addAll(StagingArea.fromFile().getAdded().values());
+        }
+        // Chunks are only listed in the chunked blobs, so these are read when there
+        // are chunks that may be unreachable.
+        for (String id : ObjectStore.ids()) {
+            if (!marked.contains(id) && ObjectStore.isType(id, ObjectStore.CHUNK)) {
+                Chunker.markChunks(marked);
+                break;
+            }
+        }
+
+        long sizeBefore = ObjectStore.size();
+        Set<String> unreachableIds = new HashSet<>();
+        boolean isPacked = false;
+        for (String id : ObjectStore.ids()) {
+            if (marked.contains(id)) {
+                continue;
+            }
+            unreachableIds.add(id);
+            isPacked |= ObjectStore.isPacked(id);
+            ObjectStore.deleteLoose(id);
+        }
+        debug("gc: %d objects marked, %d unreachable, %.3f s",
+                marked.size(), unreachableIds.size(), (System.nanoTime() - startTime) / 1e9);
+        if (unreachableIds.isEmpty()) {
+            exit("Nothing to collect.");
+        }
+        if (reachableCommits[0] < CommitGraph.get().size()) {
+            CommitGraph.write(getCommitsInTopologicalOrder());
+        }
+        if (isPacked) {
+            ObjectStore.repack(getCommitsInTopologicalOrder(), unreachableIds);
+        }
+        message("Removed %d unreachable objects, %d bytes reclaimed.",
+                unreachableIds.size(), sizeBefore - ObjectStore.size());
+    }
+
+    /**
+     * Write every object and the index stored as serialized Java instances in the
+     * binary format. Object ids do not change. Then, in a repository older than
+     * {@link #CONTENT_ID_FORMAT_VERSION}, give blobs their content ids and rewrite
+     * the history to use them, which changes the ids of the commits. Packs holding
+     * migrated or replaced objects are repacked, so that no old copy is left.
+     */
+    public static void migrate() {
+        int migrated = 0;
+        boolean isPackMigrated = false;
+        for (String id : ObjectStore.ids()) {
+            String type = ObjectStore.getHeader(id).type;
+            if (type.equals(ObjectStore.BLOB)) {
+                Blob blob = Blob.fromFile(id);
+                if (!blob.isSerialized()) {
+                    continue;
+                }
+                try (InputStream in = blob.openContent()) {
+                    ObjectStore.rewrite(id, ObjectStore.BLOB, in.readAllBytes());
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage());
+                }
+            } else if (type.equals(ObjectStore.COMMIT)) {
+                if (!BinaryCodec.isSerialized(ObjectStore.readPayload(id))) {
+                    continue;
+                }
+                ObjectStore.rewrite(id, ObjectStore.COMMIT, Commit.fromFile(id).encode());
+            } else {
+                continue;
+            }
+            isPackMigrated |= ObjectStore.isPacked(id);
+            migrated++;
+        }
+
+        boolean isIndexMigrated = INDEX.exists() && BinaryCodec.isSerialized(readContents(INDEX));
+        if (isIndexMigrated) {
+            StagingArea.fromFile().save();
+        }
+        boolean isFormatMigrated = getFormatVersion() < CONTENT_ID_FORMAT_VERSION;
+        if (migrated == 0 && !isIndexMigrated && !isFormatMigrated) {
+            exit("Nothing to migrate.");
+        }
+
+        Set<String> droppedIds = new HashSet<>();
+        int rewritten = isFormatMigrated ? migrateToContentIds(droppedIds) : 0;
+        for (String id : droppedIds) {
+            isPackMigrated |= ObjectStore.isPacked(id);
+            ObjectStore.deleteLoose(id);
+        }
+        if (isPackMigrated) {
+            ObjectStore.repack(getCommitsInTopologicalOrder(), droppedIds);
+        }
+        if (migrated > 0 || isIndexMigrated) {
+            message("Migrated %d objects%s.", migrated, isIndexMigrated ? " and the index" : "");
+        }
+        if (isFormatMigrated) {
+            message("Rewrote %d commits with content blob ids, %d objects dropped.", rewritten, droppedIds.size());
+        }
+    }
+
+    /**
+     * Save every blob under its content id, then rewrite the commits from the roots
+     * with the new blob ids and the new parent ids, and point the branch heads, the
+     * index and the commit graph to them.
+     *
+     * @param droppedIds Set the ids of the replaced blobs, commits and trees are added to
+     * @return Number of commits whose id changed
+     */
+    @SuppressWarnings("ConstantConditions")
+    private static int migrateToContentIds(Set<String> droppedIds) {
+        Map<String, String> blobIds = new HashMap<>();
+        for (String id : ObjectStore.ids()) {
+            if (ObjectStore.isType(id, ObjectStore.BLOB)) {
+                String contentId = Blob.fromFile(id).saveWithContentId();
+                blobIds.put(id, contentId);
+                if (!contentId.equals(id)) {
+                    droppedIds.add(id);
+                }
+            }
+        }
+
+        Map<String, String> commitIds = new HashMap<>();
+        Set<String> keptTreeIds = new HashSet<>();
+        for (Commit commit : getCommitsInTopologicalOrder()) {
+            Map<String, String> filesMap = new HashMap<>();
+            for (Map.Entry<String, String> entry : commit.getTracked().entrySet()) {
+                filesMap.put(entry.getKey(), blobIds.getOrDefault(entry.getValue(), entry.getValue()));
+            }
+            List<String> parents = new ArrayList<>();
+            for (String parent : commit.getParents()) {
+                parents.add(commitIds.get(parent));
+            }
+            Commit newCommit = commit.rewrite(parents, Tree.write(filesMap));
+            newCommit.save();
+            commitIds.put(commit.getId(), newCommit.getId());
+            keptTreeIds.addAll(Tree.getTreeIds(newCommit.getTreeId()));
+            if (!newCommit.getId().equals(commit.getId())) {
+                droppedIds.add(commit.getId());
+                if (commit.getTreeId() != null) {
+                    droppedIds.addAll(Tree.getTreeIds(commit.getTreeId()));
+                }
+            }
+        }
+        droppedIds.removeAll(keptTreeIds);
+
+        for (File branchHeadFile : getBranchHeadFiles()) {
+            setBranchHeadCommit(branchHeadFile, commitIds.get(readContentsAsString(branchHeadFile)));
+        }
+        if (INDEX.exists()) {
+            StagingArea stagingArea = StagingArea.fromFile();
+            stagingArea.replaceBlobIds(blobIds);
+            stagingArea.save();
+        }
+        CommitGraph.write(getCommitsInTopologicalOrder());
+        setFormatVersion(CONTENT_ID_FORMAT_VERSION);
+
+        int rewritten = 0;
+        for (Map.Entry<String, String> entry : commitIds.entrySet()) {
+            if (!entry.getKey().equals(entry.getValue())) {
+                rewritten++;
+            }
+        }
+        return rewritten;
+    }
+
+    /**
+     * Drop the repository state kept in memory between commands,
+     * such as the loaded commit graph and the list of packs.
+     */
+    public static void invalidateCaches() {
+        CommitGraph.invalidate();
+        ObjectStore.invalidate();
+        synchronized (Repository.class) {
+            formatVersion = -1;
+        }
+    }
+
+    /**
+     * Get a summary of the files that hold the repository state: HEAD, the format,
+     * the branch heads, the index, the commit graph and the packs. The summary changes
+     * whenever any of them is written.
+     *
+     * @return Summary of sizes and modified times
+     */
+    @SuppressWarnings("ConstantConditions")
+    public static String getStateStamp() {
+        List<File> files = new ArrayList<>(Arrays.asList(HEAD, FORMAT, INDEX, CommitGraph.FILE, CommitIndex.FILE));
+        files.addAll(getBranchHeadFiles());
+        File[] packFiles = ObjectStore.PACK_DIR.listFiles();
+        if (packFiles != null) {
+            files.addAll(Arrays.asList(packFiles));
+        }
+        StringBuilder stampBuilder = new StringBuilder();
+        for (File file : files) {
+            stampBuilder.append(file.getName()).append(' ').append(file.length())
+                    .append(' ').append(file.lastModified()).append('\n');
+        }
+        return stampBuilder.toString();
+    }
+
+    /**
+     * Print the type, the size or the content of an object.
+     *
+     * @param option   -t for the type, -s for the size or -p for the content
+     * @param objectId Abbreviate or whole SHA1 id of any object
+     */
+    public static void catFile(String option, String objectId) {
+        if (objectId.length() < 4 || objectId.length() > UID_LENGTH || !objectId.matches("[0-9a-f]+")) {
+            exit("No object with that id exists.");
+        }
+        Set<String> objectIds = ObjectStore.idsWithPrefix(objectId);
+        if (objectIds.isEmpty()) {
+            exit("No object with that id exists.");
+        }
+        if (objectIds.size() > 1) {
+            exit("More than 1 object has the same id prefix");
+        }
+        objectId = objectIds.iterator().next();
+
+        ObjectStore.Header header = ObjectStore.getHeader(objectId);
+        // A chunked blob is shown as the blob it stands for.
+        boolean isBlob = header.type.equals(ObjectStore.BLOB) || header.type.equals(ObjectStore.CHUNKED);
+        switch (option) {
+            case "-t":
+                System.out.println(isBlob ? ObjectStore.BLOB : header.type);
+                break;
+            case "-s":
+                System.out.println(isBlob ? Blob.fromFile(objectId).getSize() : header.size);
+                break;
+            case "-p":
+                if (isBlob) {
+                    System.out.print(Blob.fromFile(objectId).getContentAsString());
+                } else if (header.type.equals(ObjectStore.CHUNK)) {
+                    System.out.print(new String(ObjectStore.readPayload(objectId), StandardCharsets.UTF_8));
+                } else if (header.type.equals(ObjectStore.TREE)) {
+                    System.out.print(Tree.fromFile(objectId).format());
+                } else {
+                    Commit commit = Commit.fromFile(objectId);
+                    StringBuilder commitBuilder = new StringBuilder();
+                    for (String parent : commit.getParents()) {
+                        commitBuilder.append("parent ").append(parent).append("\n");
+                    }
+                    if (commit.getTreeId() != null) {
+                        commitBuilder.append("tree ").append(commit.getTreeId()).append("\n");
+                    } else {
+                        for (Map.Entry<String, String> entry : commit.getTracked().entrySet()) {
+                            commitBuilder.append("blob ").append(entry.getValue()).append(" ")
+                                    .append(new File(entry.getKey()).getName()).append("\n");
+                        }
+                    }
+                    commitBuilder.append("date ").append(commit.getTimestamp()).append("\n\n");
+                    commitBuilder.append(commit.getMessage());
+                    System.out.println(commitBuilder);
+                }
+                break;
+            default:
+                exit("Incorrect operands.");
+        }
+    }
+
+    /**
+     * Get all commits reachable from the branch heads, parents before children.
+     *
+     * @return List of Commit instances
+     */
+    @SuppressWarnings("ConstantConditions")
+    private static List<Commit> getCommitsInTopologicalOrder() {
+        List<Commit> commits = new ArrayList<>();
+        Set<String> visitedCommitIds = new HashSet<>();
+        Deque<Commit> stack = new ArrayDeque<>();
+        Deque<Iterator<String>> parentIterators = new ArrayDeque<>();
+
+        for (File branchHeadFile : getBranchHeadFiles()) {
+            String branchHeadCommitId = readContentsAsString(branchHeadFile);
+            if (!visitedCommitIds.add(branchHeadCommitId)) {
+                continue;
+            }
+            Commit branchHeadCommit = Commit.fromFile(branchHeadCommitId);
+            stack.push(branchHeadCommit);
+            parentIterators.push(branchHeadCommit.getParents().iterator());
+            while (!stack.isEmpty()) {
+                Iterator<String> parents = parentIterators.peek();
+                if (parents.hasNext()) {
+                    String parentCommitId = parents.next();
+                    if (visitedCommitIds.add(parentCommitId)) {
+                        Commit parentCommit = Commit.fromFile(parentCommitId);
+                        stack.push(parentCommit);
+                        parentIterators.push(parentCommit.getParents().iterator());
+                    }
+                } else {
+                    commits.add(stack.pop());
+                    parentIterators.pop();
+                }
+            }
+        }
+        return commits;
+    }
+
+    /**
+     * Merge the changes of both branches to the file line by line and write the
+     * result to the file. Binary content is not merged by lines, so both versions
+     * are written as a whole conflict.
+     *
+     * @param file          File instance
+     * @param baseBlobId    Split point Blob SHA1 id, or null if the file was added in both branches
+     * @param currentBlobId Current Blob SHA1 id
+     * @param targetBlobId  Target Blob SHA1 id
+     * @return true if some lines are in conflict
+     */
+    private static boolean mergeContent(File file, String baseBlobId, String currentBlobId, String targetBlobId) {
+        LineDiff.Text base = new LineDiff.Text(baseBlobId == null ? new byte[0] : readBlob(baseBlobId));
+        LineDiff.Text current = new LineDiff.Text(readBlob(currentBlobId));
+        LineDiff.Text target = new LineDiff.Text(readBlob(targetBlobId));
+        if (base.isBinary() || current.isBinary() || target.isBinary()) {
+            writeContents(file, getConflictContent(currentBlobId, targetBlobId));
+            return true;
+        }
+        long startTime = System.nanoTime();
+        int conflicts;
+        mkdirs(file.getParentFile());
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            conflicts = LineMerge.merge(out, base, current, target);
+            if (out.checkError()) {
+                throw new IOException(String.format("merge: %s: Write failed", file.getPath()));
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
+        debug("merge: %s: %d conflicts, %.3f s", Tree.getRelativePath(file.getPath()), conflicts,
+                (System.nanoTime() - startTime) / 1e9);
+        return conflicts > 0;
     }
 
     /**
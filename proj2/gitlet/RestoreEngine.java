@@ -0,0 +1,88 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import static gitlet.MyUtils.*;
+
+/**
+ * Restores files of a commit to the working directory, decoding and writing
+ * blobs on a bounded pool of {@link MyUtils#getParallelism()} threads.
+ *
+ * @author Jeffrey
+ */
+public class RestoreEngine {
+
+    /**
+     * Restore the files, skipping those whose content in the working directory
+     * already matches. Throughput is reported when debug output is enabled.
+     *
+     * @param targetFilesMap  Map with file path as key and SHA1 id to restore as value
+     * @param currentFilesMap Map with file path as key and SHA1 id in the working directory as value
+     */
+    public static void restore(Map<String, String> targetFilesMap, Map<String, String> currentFilesMap) {
+        long startTime = System.nanoTime();
+        List<Map.Entry<String, String>> toRestore = new ArrayList<>();
+        for (Map.Entry<String, String> entry : targetFilesMap.entrySet()) {
+            if (!entry.getValue().equals(currentFilesMap.get(entry.getKey()))) {
+                toRestore.add(entry);
+            }
+        }
+
+        long bytes = 0;
+        int threads = Math.min(getParallelism(), toRestore.size());
+        if (threads <= 1) {
+            for (Map.Entry<String, String> entry : toRestore) {
+                bytes += restore(entry.getKey(), entry.getValue());
+            }
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<Long>> futures = new ArrayList<>(toRestore.size());
+                for (Map.Entry<String, String> entry : toRestore) {
+                    futures.add(pool.submit(() -> restore(entry.getKey(), entry.getValue())));
+                }
+                for (Future<Long> future : futures) {
+                    bytes += getResult(future);
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        debug("restore: %d files (%d bytes) written, %d skipped, %d threads, %.3f s, %.1f MB/s",
+                toRestore.size(), bytes, targetFilesMap.size() - toRestore.size(), Math.max(threads, 1),
+                seconds, bytes / 1e6 / Math.max(seconds, 1e-9));
+    }
+
+    /**
+     * Write the blob to the file.
+     *
+     * @return Number of bytes written
+     */
+    private static long restore(String filePath, String blobId) {
+        return Blob.fromFile(blobId).writeContentTo(new File(filePath));
+    }
+
+    /**
+     * Wait for the task and rethrow its failure.
+     */
+    private static long getResult(Future<Long> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalArgumentException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
@@ -1,13 +1,14 @@
 package gitlet;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
 
-import static gitlet.MyUtils.rm;
+import static gitlet.MyUtils.debug;
+import static gitlet.MyUtils.writeContentsAtomically;
 import static gitlet.Utils.*;
 
 /**
@@ -17,6 +18,24 @@ import static gitlet.Utils.*;
  */
 public class StagingArea implements Serializable {
 
+    private static final long serialVersionUID = -6306753507977414536L;
+
+    /**
+     * Files modified less than this many milliseconds before they were hashed are
+     * always hashed again, since a later change may keep the same size and mtime.
+     */
+    private static final long RACY_WINDOW_MILLIS = 2000;
+
+    /**
+     * Magic number at the start of the index in the binary format.
+     */
+    private static final byte[] MAGIC = {'G', 'I', 'D', 'X'};
+
+    /**
+     * Version of the binary format.
+     */
+    private static final int FORMAT_VERSION = 1;
+
     /**
      * The added files Map with file path as key and SHA1 id as value.
      */
@@ -32,6 +51,15 @@ public class StagingArea implements Serializable {
      */
     private transient Map<String, String> tracked;
 
+    /**
+     * The stat cache with file path as key. Null in an index written before it existed.
+     */
+    private Map<String, FileStat> stats;
+
+    /**
+     * Whether the stat cache is changed since loaded.
+     */
+    private transient boolean statsChanged;
 
     /**
      * Get added files Map.
@@ -57,23 +85,198 @@ public class StagingArea implements Serializable {
      * @param filesMap Map with file path as key and SHA1 id as value.
      */
     public void setTracked(Map<String, String> filesMap) {
-        tracked = filesMap;
+        tracked = new TreeMap<>(filesMap);
+    }
+
+    /**
+     * Get the SHA1 ids of the files in the working directory, statting and hashing
+     * them in parallel with {@link WorktreeScanner}. Only the files that miss the stat
+     * cache are read. Entries of files not given are dropped from the cache.
+     *
+     * @param files Files in the working directory
+     * @return Map with file path as key and SHA1 id as value
+     */
+    public Map<String, String> getBlobIds(List<File> files) {
+        long startTime = System.nanoTime();
+        Map<String, FileStat> cachedStats = getStats();
+        // Workers only read the cache, the hashed stats are put back below.
+        List<FileStat> fileStats = WorktreeScanner.scan(files, file -> {
+            FileStat stat = FileStat.of(file);
+            FileStat cachedStat = cachedStats.get(file.getPath());
+            if (cachedStat != null && cachedStat.matches(stat)) {
+                return cachedStat;
+            }
+            stat.blobId = Blob.generatedId(file);
+            return stat;
+        });
+
+        Map<String, String> filesMap = new HashMap<>();
+        int hashed = 0;
+        for (int i = 0; i < files.size(); i++) {
+            String filePath = files.get(i).getPath();
+            FileStat stat = fileStats.get(i);
+            if (cachedStats.get(filePath) != stat) {
+                cachedStats.put(filePath, stat);
+                statsChanged = true;
+                hashed++;
+            }
+            filesMap.put(filePath, stat.blobId);
+        }
+        retainStats(filesMap.keySet());
+        debug("scan: %d files, %d hashed, %.3f s", files.size(), hashed, (System.nanoTime() - startTime) / 1e9);
+        return filesMap;
+    }
+
+    /**
+     * Drop the stat cache entries of the files not in the working directory.
+     *
+     * @param filePaths Paths of the files in the working directory
+     */
+    private void retainStats(Set<String> filePaths) {
+        if (getStats().keySet().retainAll(filePaths)) {
+            statsChanged = true;
+        }
+    }
+
+    /**
+     * Tells whether the stat cache is changed and should be saved.
+     *
+     * @return true if changed
+     */
+    public boolean isStatsChanged() {
+        return statsChanged;
+    }
+
+    /**
+     * Get the stat cache, creating it for an index written before it existed.
+     *
+     * @return Map with file path as key and FileStat as value
+     */
+    private Map<String, FileStat> getStats() {
+        if (stats == null) {
+            stats = new HashMap<>();
+        }
+        return stats;
     }
 
     /**
      * Get a StageArea instance from the file INDEX.
+     * An index stored as a serialized instance is read as well, and is
+     * written in the binary format on the next save.
      *
      * @return StagingArea instance
      */
     public static StagingArea fromFile() {
-        return readObject(Repository.INDEX, StagingArea.class);
+        byte[] bytes = readContents(Repository.INDEX);
+        if (BinaryCodec.isSerialized(bytes)) {
+            return readObject(Repository.INDEX, StagingArea.class);
+        }
+        return decode(bytes);
     }
 
     /**
-     * Save this instance to the file INDEX.
+     * Save this instance to the file INDEX, replacing it atomically.
      */
     public void save() {
-        writeObject(Repository.INDEX, this);
+        writeContentsAtomically(Repository.INDEX, encode());
+        statsChanged = false;
+    }
+
+    /**
+     * Encode this instance in the binary format.
+     * <pre>
+     *   "GIDX" version:byte
+     *   addedCount:varint (path:path blobId:id)*
+     *   removedCount:varint path:path*
+     *   statCount:varint (path:path size:varint mtime:varint inode:string hashedAt:varint blobId:id)*
+     * </pre>
+     * A missing inode is written as an empty string.
+     *
+     * @return Encoded bytes
+     */
+    public byte[] encode() {
+        BinaryCodec.Writer writer = new BinaryCodec.Writer();
+        for (byte b : MAGIC) {
+            writer.writeByte(b);
+        }
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeVarint(added.size());
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            writer.writePath(entry.getKey());
+            writer.writeId(entry.getValue());
+        }
+        writer.writeVarint(removed.size());
+        for (String filePath : removed) {
+            writer.writePath(filePath);
+        }
+        Map<String, FileStat> sortedStats = new TreeMap<>(getStats());
+        writer.writeVarint(sortedStats.size());
+        for (Map.Entry<String, FileStat> entry : sortedStats.entrySet()) {
+            FileStat stat = entry.getValue();
+            writer.writePath(entry.getKey());
+            writer.writeVarint(stat.size);
+            writer.writeVarint(stat.mtime);
+            writer.writeString(stat.inode == null ? "" : stat.inode);
+            writer.writeVarint(stat.hashedAt);
+            writer.writeId(stat.blobId);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decode a StagingArea instance from the binary format.
+     *
+     * @param bytes Encoded bytes
+     * @return StagingArea instance
+     */
+    public static StagingArea decode(byte[] bytes) {
+        BinaryCodec.Reader reader = new BinaryCodec.Reader(bytes);
+        for (byte b : MAGIC) {
+            if (reader.readByte() != b) {
+                throw new IllegalArgumentException(
+                        String.format("index: %s: Bad file", Repository.INDEX.getPath()));
+            }
+        }
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException(
+                    String.format("index: %s: Unknown version %d", Repository.INDEX.getPath(), version));
+        }
+        StagingArea stagingArea = new StagingArea();
+        int addedCount = reader.readLength();
+        for (int i = 0; i < addedCount; i++) {
+            stagingArea.added.put(reader.readPath(), reader.readId());
+        }
+        int removedCount = reader.readLength();
+        for (int i = 0; i < removedCount; i++) {
+            stagingArea.removed.add(reader.readPath());
+        }
+        int statCount = reader.readLength();
+        Map<String, FileStat> stats = stagingArea.getStats();
+        for (int i = 0; i < statCount; i++) {
+            String filePath = reader.readPath();
+            long size = reader.readVarint();
+            long mtime = reader.readVarint();
+            String inode = reader.readString();
+            long hashedAt = reader.readVarint();
+            FileStat stat = new FileStat(size, mtime, inode.isEmpty() ? null : inode, hashedAt);
+            stat.blobId = reader.readId();
+            stats.put(filePath, stat);
+        }
+        return stagingArea;
+    }
+
+    /**
+     * Replace the SHA1 ids of the added files and of the stat cache entries.
+     *
+     * @param blobIds Map with old SHA1 id as key and new SHA1 id as value
+     */
+    public void replaceBlobIds(Map<String, String> blobIds) {
+        added.replaceAll((filePath, blobId) -> blobIds.getOrDefault(blobId, blobId));
+        for (FileStat stat : getStats().values()) {
+            stat.blobId = blobIds.getOrDefault(stat.blobId, stat.blobId);
+        }
+        statsChanged = true;
     }
 
     /**
@@ -114,11 +317,52 @@ public class StagingArea implements Serializable {
      * @return true if the staging area is changed
      */
     public boolean add(File file) {
-        String filePath = file.getPath();
+        return addAll(Collections.singletonList(file));
+    }
 
-        Blob blob = new Blob(file);
-        String blobId = blob.getId();
+    /**
+     * Add files to the staging area. The files that miss the stat cache are hashed
+     * and saved in parallel with {@link WorktreeScanner}, each in a single pass,
+     * then the files are staged in order.
+     *
+     * @param files File instances
+     * @return true if the staging area is changed
+     */
+    public boolean addAll(List<File> files) {
+        Map<String, FileStat> cachedStats = getStats();
+        // Workers only read the cache, the hashed stats are put back below.
+        List<FileStat> fileStats = WorktreeScanner.scan(files, file -> {
+            FileStat stat = FileStat.of(file);
+            FileStat cachedStat = cachedStats.get(file.getPath());
+            if (cachedStat != null && cachedStat.matches(stat)) {
+                if (!ObjectStore.contains(cachedStat.blobId)) {
+                    Blob.save(file);
+                }
+                return cachedStat;
+            }
+            stat.blobId = Blob.save(file);
+            return stat;
+        });
 
+        boolean isChanged = false;
+        for (int i = 0; i < files.size(); i++) {
+            String filePath = files.get(i).getPath();
+            FileStat stat = fileStats.get(i);
+            if (cachedStats.get(filePath) != stat) {
+                cachedStats.put(filePath, stat);
+                statsChanged = true;
+            }
+            isChanged |= stage(filePath, stat.blobId);
+        }
+        return isChanged;
+    }
+
+    /**
+     * Stage the file with the SHA1 id of its content, which is saved.
+     *
+     * @return true if the staging area is changed
+     */
+    private boolean stage(String filePath, String blobId) {
         String trackedBlobId = tracked.get(filePath);
         if (trackedBlobId != null) {
             if (trackedBlobId.equals(blobId)) {
@@ -129,15 +373,10 @@ public class StagingArea implements Serializable {
             }
         }
 
+        // A file removed then added again with other content is no longer removed.
+        boolean isRestored = removed.remove(filePath);
         String prevBlobId = added.put(filePath, blobId);
-        if (prevBlobId != null && prevBlobId.equals(blobId)) {
-            return false;
-        }
-
-        if (!blob.getFile().exists()) {
-            blob.save();
-        }
-        return true;
+        return isRestored || prevBlobId == null || !prevBlobId.equals(blobId);
     }
 
     /**
@@ -156,11 +395,78 @@ public class StagingArea implements Serializable {
 
         if (tracked.get(filePath) != null) {
             if (file.exists()) {
-                rm(file);
+                Repository.deleteWorktreeFile(file);
             }
             return removed.add(filePath);
         }
         return false;
     }
 
+    /**
+     * The cached stat of a file in the working directory and the SHA1 id of its content.
+     */
+    private static class FileStat implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Size in bytes.
+         */
+        private final long size;
+
+        /**
+         * Last modified time in milliseconds.
+         */
+        private final long mtime;
+
+        /**
+         * Inode or the platform equivalent, null if not available.
+         */
+        private final String inode;
+
+        /**
+         * Time the file was hashed in milliseconds.
+         */
+        private final long hashedAt;
+
+        /**
+         * SHA1 id of the content.
+         */
+        private String blobId;
+
+        private FileStat(long size, long mtime, String inode, long hashedAt) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.hashedAt = hashedAt;
+        }
+
+        /**
+         * Stat the file.
+         *
+         * @param file File instance
+         * @return FileStat instance without SHA1 id
+         */
+        static FileStat of(File file) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                Object fileKey = attributes.fileKey();
+                return new FileStat(attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        fileKey == null ? null : fileKey.toString(), System.currentTimeMillis());
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+        }
+
+        /**
+         * Tells whether the file is unchanged since this stat was cached.
+         *
+         * @param current Current stat of the file
+         * @return true if unchanged
+         */
+        boolean matches(FileStat current) {
+            return size == current.size && mtime == current.mtime && Objects.equals(inode, current.inode)
+                    && hashedAt - mtime > RACY_WINDOW_MILLIS;
+        }
+    }
 }
@@ -0,0 +1,373 @@
+package gitlet;
+
+import java.io.File;
+import java.util.*;
+
+import static gitlet.Utils.*;
+
+/**
+ * Represent a directory of a commit: the files and the subdirectories in it,
+ * by name. Trees are content addressed, so a directory that did not change
+ * between two commits is the same tree object, and is stored once and compared
+ * by id.
+ *
+ * @author Jeffrey
+ */
+public class Tree {
+
+    /**
+     * Version of the binary format, the first byte of the payload.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int BLOB_ENTRY = 0;
+    private static final int TREE_ENTRY = 1;
+
+    /**
+     * The entries by name.
+     */
+    private final SortedMap<String, Entry> entries;
+
+    /**
+     * The SHA1 id.
+     */
+    private final String id;
+
+    private Tree(String id, SortedMap<String, Entry> entries) {
+        this.id = id;
+        this.entries = entries;
+    }
+
+    /**
+     * Get a Tree instance from the file with the SHA1 id, through the object cache.
+     *
+     * @param id SHA1 id
+     * @return Tree instance
+     */
+    public static Tree fromFile(String id) {
+        return ObjectCache.get(id, Tree.class, Tree::load, tree -> 128 + tree.entries.size() * 160L);
+    }
+
+    /**
+     * Read and decode the tree from the object store.
+     */
+    private static Tree load(String id) {
+        return decode(id, ObjectStore.readPayload(id));
+    }
+
+    /**
+     * Decode a tree from the binary format.
+     *
+     * @param id      SHA1 id
+     * @param payload Payload bytes
+     * @return Tree instance
+     */
+    public static Tree decode(String id, byte[] payload) {
+        BinaryCodec.Reader reader = new BinaryCodec.Reader(payload);
+        int version = reader.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException(String.format("tree: %s: Unknown version %d", id, version));
+        }
+        int count = reader.readLength();
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        for (int i = 0; i < count; i++) {
+            boolean isTree = reader.readByte() == TREE_ENTRY;
+            String name = reader.readString();
+            entries.put(name, new Entry(isTree, reader.readId()));
+        }
+        return new Tree(id, entries);
+    }
+
+    /**
+     * Encode and save the entries, unless the same tree exists.
+     *
+     * @return SHA1 id
+     */
+    private static String save(SortedMap<String, Entry> entries) {
+        BinaryCodec.Writer writer = new BinaryCodec.Writer();
+        writer.writeByte(FORMAT_VERSION);
+        writer.writeVarint(entries.size());
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            writer.writeByte(entry.getValue().isTree ? TREE_ENTRY : BLOB_ENTRY);
+            writer.writeString(entry.getKey());
+            writer.writeId(entry.getValue().id);
+        }
+        byte[] payload = writer.toByteArray();
+        String id = sha1(ObjectStore.TREE, payload);
+        ObjectStore.write(id, ObjectStore.TREE, payload);
+        return id;
+    }
+
+    /**
+     * Save the trees of all files.
+     *
+     * @param filesMap Map with file path as key and SHA1 id as value
+     * @return SHA1 id of the root tree
+     */
+    public static String write(Map<String, String> filesMap) {
+        return update(null, filesMap, Collections.emptySet());
+    }
+
+    /**
+     * Save the trees of a new version of the root tree with files added, modified and
+     * removed. Only the directories on the paths of these files are written again,
+     * the others are shared with the base tree.
+     *
+     * @param baseTreeId SHA1 id of the root tree to start from, null for an empty tree
+     * @param added      Map with path of the added or modified file as key and SHA1 id as value
+     * @param removed    Paths of the removed files
+     * @return SHA1 id of the new root tree
+     */
+    public static String update(String baseTreeId, Map<String, String> added, Set<String> removed) {
+        Map<String, String> changes = new HashMap<>();
+        for (Map.Entry<String, String> entry : added.entrySet()) {
+            changes.put(getRelativePath(entry.getKey()), entry.getValue());
+        }
+        for (String filePath : removed) {
+            changes.put(getRelativePath(filePath), null);
+        }
+        String id = update(baseTreeId == null ? null : fromFile(baseTreeId), changes);
+        return id == null ? save(new TreeMap<>()) : id;
+    }
+
+    /**
+     * Apply the changes to the tree.
+     *
+     * @param base    Tree to start from, or null
+     * @param changes Map with path relative to the tree as key and SHA1 id, or null if removed, as value
+     * @return SHA1 id of the new tree, or null if it is empty
+     */
+    private static String update(Tree base, Map<String, String> changes) {
+        SortedMap<String, Entry> entries = base == null ? new TreeMap<>() : new TreeMap<>(base.entries);
+        Map<String, Map<String, String>> subdirChanges = new TreeMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    entries.remove(path);
+                } else {
+                    entries.put(path, new Entry(false, change.getValue()));
+                }
+            } else {
+                subdirChanges.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> subdirChange : subdirChanges.entrySet()) {
+            String name = subdirChange.getKey();
+            Entry entry = entries.get(name);
+            Tree subtree = entry != null && entry.isTree ? fromFile(entry.id) : null;
+            String subtreeId = update(subtree, subdirChange.getValue());
+            if (subtreeId == null) {
+                // A file that replaced the directory stays.
+                if (subtree != null) {
+                    entries.remove(name);
+                }
+            } else {
+                entries.put(name, new Entry(true, subtreeId));
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        if (base != null && entries.equals(base.entries)) {
+            return base.id;
+        }
+        return save(entries);
+    }
+
+    /**
+     * Get all files in the tree and its subtrees.
+     *
+     * @param treeId SHA1 id of the root tree
+     * @return Map with file path as key and SHA1 id as value
+     */
+    public static Map<String, String> getFiles(String treeId) {
+        Map<String, String> filesMap = new TreeMap<>();
+        addFiles(treeId, Repository.CWD, filesMap);
+        return filesMap;
+    }
+
+    private static void addFiles(String treeId, File dir, Map<String, String> filesMap) {
+        for (Map.Entry<String, Entry> entry : fromFile(treeId).entries.entrySet()) {
+            File file = new File(dir, entry.getKey());
+            if (entry.getValue().isTree) {
+                addFiles(entry.getValue().id, file, filesMap);
+            } else {
+                filesMap.put(file.getPath(), entry.getValue().id);
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the tree and all its subtrees.
+     *
+     * @param treeId SHA1 id of the root tree
+     * @return Set of SHA1 ids
+     */
+    public static Set<String> getTreeIds(String treeId) {
+        Set<String> treeIds = new HashSet<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(treeId);
+        while (!stack.isEmpty()) {
+            String id = stack.pop();
+            if (!treeIds.add(id)) {
+                continue;
+            }
+            for (Entry entry : fromFile(id).entries.values()) {
+                if (entry.isTree) {
+                    stack.push(entry.id);
+                }
+            }
+        }
+        return treeIds;
+    }
+
+    /**
+     * Mark the tree, its subtrees and their blobs. Trees already marked are not
+     * read again, so that trees shared between commits are read once.
+     *
+     * @param treeId SHA1 id of the tree
+     * @param marked Set of marked SHA1 ids to add to
+     */
+    public static void mark(String treeId, Set<String> marked) {
+        if (!marked.add(treeId)) {
+            return;
+        }
+        for (Entry entry : fromFile(treeId).entries.values()) {
+            if (entry.isTree) {
+                mark(entry.id, marked);
+            } else {
+                marked.add(entry.id);
+            }
+        }
+    }
+
+    /**
+     * Get the files that differ between two root trees. Subtrees with the same id
+     * are skipped without being read.
+     *
+     * @param treeIdA SHA1 id of a root tree
+     * @param treeIdB SHA1 id of a root tree
+     * @return Map with file path as key and the SHA1 ids in both trees, null if absent, as value
+     */
+    public static Map<String, String[]> diff(String treeIdA, String treeIdB) {
+        Map<String, String[]> changes = new TreeMap<>();
+        diff(treeIdA, treeIdB, Repository.CWD, changes);
+        return changes;
+    }
+
+    private static void diff(String treeIdA, String treeIdB, File dir, Map<String, String[]> changes) {
+        if (Objects.equals(treeIdA, treeIdB)) {
+            return;
+        }
+        SortedMap<String, Entry> entriesA = treeIdA == null ? Collections.emptySortedMap() : fromFile(treeIdA).entries;
+        SortedMap<String, Entry> entriesB = treeIdB == null ? Collections.emptySortedMap() : fromFile(treeIdB).entries;
+        Set<String> names = new TreeSet<>(entriesA.keySet());
+        names.addAll(entriesB.keySet());
+        for (String name : names) {
+            Entry entryA = entriesA.get(name);
+            Entry entryB = entriesB.get(name);
+            if (Objects.equals(entryA, entryB)) {
+                continue;
+            }
+            File file = new File(dir, name);
+            diff(entryA != null && entryA.isTree ? entryA.id : null,
+                    entryB != null && entryB.isTree ? entryB.id : null, file, changes);
+            String blobIdA = entryA != null && !entryA.isTree ? entryA.id : null;
+            String blobIdB = entryB != null && !entryB.isTree ? entryB.id : null;
+            if (!Objects.equals(blobIdA, blobIdB)) {
+                changes.put(file.getPath(), new String[]{blobIdA, blobIdB});
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the subtrees or of the blobs directly in this tree.
+     *
+     * @param isTree true for the subtrees, false for the blobs
+     * @return List of SHA1 ids
+     */
+    public List<String> getEntryIds(boolean isTree) {
+        List<String> ids = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (entry.isTree == isTree) {
+                ids.add(entry.id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Format the entries as lines of type, SHA1 id and name, as printed by cat-file.
+     *
+     * @return Formatted entries
+     */
+    public String format() {
+        StringBuilder treeBuilder = new StringBuilder();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            treeBuilder.append(entry.getValue().isTree ? ObjectStore.TREE : ObjectStore.BLOB).append(' ')
+                    .append(entry.getValue().id).append(' ').append(entry.getKey()).append('\n');
+        }
+        return treeBuilder.toString();
+    }
+
+    /**
+     * Get the path of the file relative to the working directory, with '/' as separator.
+     *
+     * @param filePath Absolute path of the file
+     * @return Relative path
+     */
+    public static String getRelativePath(String filePath) {
+        String root = Repository.CWD.getPath() + File.separator;
+        if (!filePath.startsWith(root)) {
+            throw new IllegalArgumentException(String.format("tree: %s: Not in the working directory", filePath));
+        }
+        return filePath.substring(root.length()).replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Get the SHA1 id.
+     *
+     * @return SHA1 id
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * A file or a subdirectory in a tree.
+     */
+    private static class Entry {
+
+        /**
+         * Whether the entry is a subdirectory.
+         */
+        private final boolean isTree;
+
+        /**
+         * SHA1 id of the blob or the tree.
+         */
+        private final String id;
+
+        Entry(boolean isTree, String id) {
+            this.isTree = isTree;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return isTree == entry.isTree && id.equals(entry.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(isTree, id);
+        }
+    }
+}
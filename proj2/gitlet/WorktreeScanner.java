@@ -0,0 +1,87 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+import static gitlet.MyUtils.*;
+
+/**
+ * Runs a task, such as stat and hash, on every file of the working directory
+ * with a fork-join pool of {@link MyUtils#getParallelism()} threads.
+ *
+ * @author Jeffrey
+ */
+public class WorktreeScanner {
+
+    /**
+     * Ranges of at most this many files are not split further.
+     */
+    private static final int THRESHOLD = 8;
+
+    /**
+     * Apply the task to every file.
+     *
+     * @param files Files in the working directory
+     * @param task  Function applied to each file, called from several threads at once
+     * @return Results in the order of the files
+     * @param <T> Type of the result
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> List<T> scan(List<File> files, Function<File, T> task) {
+        Object[] results = new Object[files.size()];
+        int parallelism = getParallelism();
+        if (parallelism <= 1 || files.size() <= THRESHOLD) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = task.apply(files.get(i));
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ScanTask<>(files, task, results, 0, results.length));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        return (List<T>) new ArrayList<>(Arrays.asList(results));
+    }
+
+    /**
+     * Apply the task to the files in [from, to), splitting the range in halves.
+     */
+    private static class ScanTask<T> extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<File> files;
+        private final Function<File, T> task;
+        private final Object[] results;
+        private final int from;
+        private final int to;
+
+        ScanTask(List<File> files, Function<File, T> task, Object[] results, int from, int to) {
+            this.files = files;
+            this.task = task;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = task.apply(files.get(i));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ScanTask<>(files, task, results, from, mid),
+                    new ScanTask<>(files, task, results, mid, to));
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static gitlet.MyUtils.*;
+import static gitlet.Utils.*;
+
+/**
+ * Lists the files of the working directory and its subdirectories, reading the
+ * directories on a fork-join pool of {@link MyUtils#getParallelism()} threads,
+ * one task per directory. The .gitlet directories and the paths matched by the
+ * ignore file are skipped, and ignored directories are not read at all.
+ *
+ * <pre>
+ * .gitletignore
+ *   # comment
+ *   *.class       name of a file or a directory at any depth
+ *   build/        directory only
+ *   /notes.txt    path relative to the working directory
+ *   docs/*.tmp    path relative to the working directory, since it has a '/'
+ *   !keep.class   not ignored, if a previous pattern matched it
+ * </pre>
+ *
+ * Patterns are globs, where '*' does not match '/' and '**' does, and the last
+ * pattern that matches a path decides. Symbolic links to directories are not
+ * followed.
+ *
+ * @author Jeffrey
+ */
+public class WorktreeWalker {
+
+    /**
+     * The ignore file in the working directory.
+     */
+    public static final File IGNORE_FILE = join(Repository.CWD, ".gitletignore");
+
+    /**
+     * The patterns of the ignore file, in order.
+     */
+    private final List<Rule> rules;
+
+    private WorktreeWalker(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Get a walker with the patterns of the ignore file, if there is one.
+     *
+     * @return WorktreeWalker instance
+     */
+    public static WorktreeWalker load() {
+        List<Rule> rules = new ArrayList<>();
+        if (IGNORE_FILE.isFile()) {
+            for (String line : readContentsAsString(IGNORE_FILE).split("\r?\n")) {
+                String pattern = line.trim();
+                if (!pattern.isEmpty() && !pattern.startsWith("#")) {
+                    rules.add(new Rule(pattern));
+                }
+            }
+        }
+        return new WorktreeWalker(rules);
+    }
+
+    /**
+     * List the files in the directory and its subdirectories that are not ignored.
+     *
+     * @param dir Directory in the working directory
+     * @return Files ordered by path
+     */
+    public List<File> walk(File dir) {
+        long startTime = System.nanoTime();
+        List<File> files;
+        int parallelism = getParallelism();
+        if (parallelism <= 1) {
+            files = new WalkTask(dir.toPath()).compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                files = pool.invoke(new WalkTask(dir.toPath()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        files.sort(Comparator.naturalOrder());
+        debug("walk: %s: %d files, %.3f s", dir.getPath(), files.size(), (System.nanoTime() - startTime) / 1e9);
+        return files;
+    }
+
+    /**
+     * Tells if the file or the directory is ignored, by its own path only.
+     *
+     * @param file        File in the working directory
+     * @param isDirectory Whether it is a directory
+     * @return true if the last pattern that matches it is not negated
+     */
+    public boolean isIgnored(File file, boolean isDirectory) {
+        if (rules.isEmpty()) {
+            return false;
+        }
+        Path relativePath = Paths.get(Tree.getRelativePath(file.getPath()));
+        boolean isIgnored = false;
+        for (Rule rule : rules) {
+            if (rule.matches(relativePath, isDirectory)) {
+                isIgnored = !rule.isNegated;
+            }
+        }
+        return isIgnored;
+    }
+
+    /**
+     * Tells if the glob matches the path relative to the working directory. A glob
+     * without '/' matches the name of the file at any depth.
+     *
+     * @param glob         Glob pattern
+     * @param relativePath Relative path, with '/' as separator
+     * @return true if it matches
+     */
+    public static boolean matches(String glob, String relativePath) {
+        Path path = Paths.get(relativePath);
+        if (glob.indexOf('/') < 0) {
+            path = path.getFileName();
+        }
+        return FileSystems.getDefault().getPathMatcher("glob:" + glob).matches(path);
+    }
+
+    /**
+     * Read a directory, forking a task for each subdirectory.
+     */
+    private class WalkTask extends RecursiveTask<List<File>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        WalkTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<File> compute() {
+            List<File> files = new ArrayList<>();
+            List<WalkTask> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+                for (Path entry : entries) {
+                    BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                            LinkOption.NOFOLLOW_LINKS);
+                    boolean isDirectory = attributes.isDirectory();
+                    boolean isFile = attributes.isRegularFile()
+                            || attributes.isSymbolicLink() && Files.isRegularFile(entry);
+                    if (isDirectory && entry.getFileName().toString().equals(".gitlet")
+                            || !isDirectory && !isFile || isIgnored(entry.toFile(), isDirectory)) {
+                        continue;
+                    }
+                    if (isDirectory) {
+                        WalkTask subtask = new WalkTask(entry);
+                        if (getPool() != null) {
+                            subtask.fork();
+                        }
+                        subtasks.add(subtask);
+                    } else {
+                        files.add(entry.toFile());
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalArgumentException(String.format("walk: %s: %s", dir, e.getMessage()));
+            }
+            for (WalkTask subtask : subtasks) {
+                files.addAll(getPool() != null ? subtask.join() : subtask.compute());
+            }
+            return files;
+        }
+    }
+
+    /**
+     * A pattern of the ignore file.
+     */
+    private static class Rule {
+
+        /**
+         * Whether the pattern starts with '!'.
+         */
+        private final boolean isNegated;
+
+        /**
+         * Whether the pattern ends with '/'.
+         */
+        private final boolean isDirectoryOnly;
+
+        /**
+         * Whether the pattern is matched against the whole relative path, rather than the name.
+         */
+        private final boolean isAnchored;
+
+        private final PathMatcher matcher;
+
+        Rule(String pattern) {
+            isNegated = pattern.startsWith("!");
+            if (isNegated) {
+                pattern = pattern.substring(1);
+            }
+            isDirectoryOnly = pattern.endsWith("/");
+            if (isDirectoryOnly) {
+                pattern = pattern.substring(0, pattern.length() - 1);
+            }
+            isAnchored = pattern.indexOf('/') >= 0;
+            if (pattern.startsWith("/")) {
+                pattern = pattern.substring(1);
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        }
+
+        boolean matches(Path relativePath, boolean isDirectory) {
+            if (isDirectoryOnly && !isDirectory) {
+                return false;
+            }
+            return matcher.matches(isAnchored ? relativePath : relativePath.getFileName());
+        }
+    }
+}